@@ -8,6 +8,8 @@
  */
 package scala.tools.jline;
 
+import scala.tools.jline.internal.TerminalLineSettings;
+
 // Based on Apache Karaf impl
 
 /**
@@ -23,14 +25,18 @@ public class NoInterruptUnixTerminal
     }
 
     @Override
-    public void init() throws Exception {
-        super.init();
-        getSettings().set("intr undef");
+    protected void configure(final TerminalLineSettings.Editor editor) {
+        // the original interrupt character comes back with the rest on restore()
+        editor.undef("intr");
+    }
+
+    @Override
+    public void disableInterruptCharacter() {
+        // always disabled
     }
 
     @Override
-    public void restore() throws Exception {
-        getSettings().set("intr ^C");
-        super.restore();
+    public void enableInterruptCharacter() {
+        // never enabled while in use
     }
 }
@@ -61,5 +61,4 @@ public interface Terminal
     void setEchoEnabled(boolean enabled);
 
     String getOutputEncoding();
-
 }
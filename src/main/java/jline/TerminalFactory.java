@@ -12,6 +12,7 @@ import java.text.MessageFormat;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.fusesource.jansi.internal.CLibrary;
 import scala.tools.jline.internal.Configuration;
 import scala.tools.jline.internal.Log;
 import scala.tools.jline.internal.Preconditions;
@@ -44,12 +45,23 @@ public class TerminalFactory
 
     private static Terminal term = null;
 
+    private static Boolean stdinTty;
+
+    private static boolean stdinProbed;
+
+    /**
+     * Creates and initializes a terminal. With the <tt>auto</tt> type on unix, an
+     * <tt>UnsupportedTerminal</tt> is returned straight away when standard input is
+     * not a terminal, without running <tt>stty</tt>.
+     */
     public static synchronized Terminal create() {
         if (Log.TRACE) {
             //noinspection ThrowableInstanceNeverThrown
             Log.trace(new Throwable("CREATE MARKER"));
         }
 
+        long start = System.nanoTime();
+
         String type = Configuration.getString(JLINE_TERMINAL, AUTO);
         if ("dumb".equals(System.getenv("TERM"))) {
             type = "none";
@@ -78,7 +90,13 @@ public class TerminalFactory
                     if (os.contains(WINDOWS)) {
                         flavor = Flavor.WINDOWS;
                     }
-                    t = getFlavor(flavor);
+                    if (flavor == Flavor.UNIX && Boolean.FALSE.equals(isStdinTty())) {
+                        Log.debug("Standard input is not a terminal; using unsupported");
+                        t = new UnsupportedTerminal();
+                    }
+                    else {
+                        t = getFlavor(flavor);
+                    }
                 }
                 else {
                     try {
@@ -97,6 +115,7 @@ public class TerminalFactory
 
         Log.debug("Created Terminal: ", t);
 
+        long created = System.nanoTime();
         try {
             t.init();
         }
@@ -105,9 +124,39 @@ public class TerminalFactory
             return new UnsupportedTerminal();
         }
 
+        if (Log.DEBUG) {
+            long end = System.nanoTime();
+            Log.debug("Terminal bootstrap: create ", (created - start) / 1000, " us, init ", (end - created) / 1000,
+                " us, total ", (end - start) / 1000, " us");
+        }
+
         return t;
     }
 
+    /**
+     * Tells whether standard input is a terminal, with <tt>isatty(3)</tt> rather than by
+     * running a command. The answer is worked out once and cached.
+     *
+     * @return null when it can't be told, e.g. without the jansi natives.
+     * @since 2.13
+     */
+    public static synchronized Boolean isStdinTty() {
+        if (!stdinProbed) {
+            long start = System.nanoTime();
+            try {
+                if (CLibrary.HAVE_ISATTY) {
+                    stdinTty = CLibrary.isatty(CLibrary.STDIN_FILENO) == 1;
+                }
+            }
+            catch (Throwable e) {
+                Log.debug("Unable to probe standard input: ", e);
+            }
+            stdinProbed = true;
+            Log.debug("Standard input is a terminal: ", stdinTty, " (probed in ", (System.nanoTime() - start) / 1000, " us)");
+        }
+        return stdinTty;
+    }
+
     public static synchronized void reset() {
         term = null;
     }
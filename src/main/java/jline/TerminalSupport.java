@@ -11,11 +11,15 @@ package scala.tools.jline;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import scala.tools.jline.internal.Log;
 import scala.tools.jline.internal.ShutdownHooks;
 import scala.tools.jline.internal.ShutdownHooks.Task;
 
+import static scala.tools.jline.internal.Preconditions.checkNotNull;
+
 /**
  * Provides support for {@link Terminal} instances.
  *
@@ -37,6 +41,8 @@ public abstract class TerminalSupport
 
     private boolean ansiSupported;
 
+    private final List<SizeListener> sizeListeners = new CopyOnWriteArrayList<SizeListener>();
+
     protected TerminalSupport(final boolean supported) {
         this.supported = supported;
     }
@@ -120,4 +126,50 @@ public abstract class TerminalSupport
         // null for unknown
         return null;
     }
+
+    /**
+     * Registers a listener to be told when the terminal has been resized.
+     *
+     * @since 2.13
+     */
+    public void addSizeListener(final SizeListener listener) {
+        sizeListeners.add(checkNotNull(listener));
+    }
+
+    /**
+     * @since 2.13
+     */
+    public void removeSizeListener(final SizeListener listener) {
+        sizeListeners.remove(listener);
+    }
+
+    /**
+     * Notifies the registered {@link SizeListener}s; called by subclasses which detect resizes.
+     *
+     * @since 2.13
+     */
+    protected void fireSizeChanged() {
+        for (SizeListener listener : sizeListeners) {
+            try {
+                listener.sizeChanged(this);
+            }
+            catch (Exception e) {
+                Log.warn("Size listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Receives terminal resize notifications. Terminals which can not detect resizes
+     * never call it; callers then see the new size on their next {@link #getWidth()}.
+     *
+     * @since 2.13
+     */
+    public interface SizeListener
+    {
+        /**
+         * Called, possibly from a signal dispatch thread, after the terminal size changed.
+         */
+        void sizeChanged(Terminal terminal);
+    }
 }
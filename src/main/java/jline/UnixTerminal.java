@@ -9,7 +9,10 @@
 package scala.tools.jline;
 
 import scala.tools.jline.internal.Log;
+import scala.tools.jline.internal.Signals;
 import scala.tools.jline.internal.TerminalLineSettings;
+import scala.tools.jline.internal.TestAccessible;
+import scala.tools.jline.internal.TtyAttributes;
 
 /**
  * Terminal that is used for unix platforms. Terminal initialization
@@ -18,6 +21,9 @@ import scala.tools.jline.internal.TerminalLineSettings;
  * character input. All known unix systems (including
  * Linux and Macintosh OS X) support the <em>stty</em>), so this
  * implementation should work for an reasonable POSIX system.
+ * <p/>
+ * The terminal size is cached. Where <tt>SIGWINCH</tt> can be trapped the cache is
+ * only refreshed after a window change, otherwise it expires after a second.
  *
  * @author <a href="mailto:mwp1@cornell.edu">Marc Prud'hommeaux</a>
  * @author <a href="mailto:dwkemp@gmail.com">Dale Kemp</a>
@@ -28,10 +34,50 @@ import scala.tools.jline.internal.TerminalLineSettings;
 public class UnixTerminal
     extends TerminalSupport
 {
-    private final TerminalLineSettings settings = new TerminalLineSettings();
+    private static final String WINCH = "WINCH";
+
+    private static final long SIZE_TIMEOUT = 1000;
+
+    private final TerminalLineSettings settings;
+
+    private final Runnable windowChangeTask = new Runnable()
+    {
+        public void run() {
+            windowChanged();
+        }
+    };
+
+    private boolean windowChangeTrapped;
+
+    private boolean sizeValid;
+
+    /**
+     * Counts window changes, so that a size queried across one isn't taken as valid.
+     */
+    private int sizeGeneration;
+
+    private long sizeFetched;
+
+    private int width;
+
+    private int height;
+
+    /**
+     * Whether <tt>intr</tt> was disabled by {@link #disableInterruptCharacter}; tracked
+     * so repeated calls don't reach <tt>stty</tt>.
+     */
+    private boolean interruptDisabled;
 
     public UnixTerminal() throws Exception {
+        this(new TerminalLineSettings());
+    }
+
+    /**
+     * @since 2.13
+     */
+    protected UnixTerminal(final TerminalLineSettings settings) throws Exception {
         super(true);
+        this.settings = settings;
     }
 
     protected TerminalLineSettings getSettings() {
@@ -51,10 +97,27 @@ public class UnixTerminal
         // Set the console to be character-buffered instead of line-buffered.
         // Make sure we're distinguishing carriage return from newline.
         // Allow ctrl-s keypress to be used (as forward search)
-        settings.set("-icanon min 1 -icrnl -inlcr -ixon");
-        settings.set("dsusp undef");
+        // All of it is applied at once, along with any changes from subclasses.
+        TerminalLineSettings.Editor editor = settings.edit().raw().undef("dsusp").echo(false);
+        configure(editor);
+        editor.apply();
+
+        super.setEchoEnabled(false);
 
-        setEchoEnabled(false);
+        synchronized (this) {
+            if (!windowChangeTrapped) {
+                windowChangeTrapped = Signals.register(WINCH, windowChangeTask);
+            }
+        }
+    }
+
+    /**
+     * Hook for subclasses to add their own changes to the ones applied by {@link #init}.
+     *
+     * @since 2.13
+     */
+    protected void configure(final TerminalLineSettings.Editor editor) {
+        // empty
     }
 
     /**
@@ -64,6 +127,13 @@ public class UnixTerminal
      */
     @Override
     public void restore() throws Exception {
+        synchronized (this) {
+            Signals.unregister(WINCH, windowChangeTask);
+            windowChangeTrapped = false;
+            sizeValid = false;
+            // restored along with everything else
+            interruptDisabled = false;
+        }
         settings.restore();
         super.restore();
     }
@@ -73,8 +143,10 @@ public class UnixTerminal
      */
     @Override
     public int getWidth() {
-        int w = settings.getProperty("columns");
-        return w < 1 ? DEFAULT_WIDTH : w;
+        updateSize();
+        synchronized (this) {
+            return width < 1 ? DEFAULT_WIDTH : width;
+        }
     }
 
     /**
@@ -82,8 +154,57 @@ public class UnixTerminal
      */
     @Override
     public int getHeight() {
-        int h = settings.getProperty("rows");
-        return h < 1 ? DEFAULT_HEIGHT : h;
+        updateSize();
+        synchronized (this) {
+            return height < 1 ? DEFAULT_HEIGHT : height;
+        }
+    }
+
+    /**
+     * Queries the terminal size, if the cached one is stale. The query may fork
+     * <tt>stty</tt>, so it runs without holding the terminal's monitor; only its result
+     * is published under it.
+     */
+    private void updateSize() {
+        long now = System.currentTimeMillis();
+        int generation;
+        synchronized (this) {
+            if (sizeValid && (windowChangeTrapped || now - sizeFetched <= SIZE_TIMEOUT)) {
+                return;
+            }
+            generation = sizeGeneration;
+        }
+        TtyAttributes attributes;
+        try {
+            attributes = settings.refresh();
+        }
+        catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            Log.debug("Failed to query terminal size", e);
+            attributes = settings.getAttributes();
+        }
+        synchronized (this) {
+            width = attributes.getColumns();
+            height = attributes.getRows();
+            sizeFetched = now;
+            // a window change during the query makes the result stale already
+            sizeValid = generation == sizeGeneration;
+        }
+    }
+
+    /**
+     * Invalidates the cached size and notifies the size listeners; run on <tt>SIGWINCH</tt>.
+     */
+    @TestAccessible
+    void windowChanged() {
+        synchronized (this) {
+            sizeValid = false;
+            sizeGeneration++;
+        }
+        Log.trace("Window changed");
+        fireSizeChanged();
     }
 
     @Override
@@ -105,10 +226,17 @@ public class UnixTerminal
         }
     }
 
-    public void disableInterruptCharacter()
+    /**
+     * Disables the interrupt character (ctrl-c), unless it is already disabled.
+     */
+    public synchronized void disableInterruptCharacter()
     {
+        if (interruptDisabled) {
+            return;
+        }
         try {
             settings.set("intr undef");
+            interruptDisabled = true;
         }
         catch (Exception e) {
             if (e instanceof InterruptedException) {
@@ -118,10 +246,17 @@ public class UnixTerminal
         }
     }
 
-    public void enableInterruptCharacter()
+    /**
+     * Enables the interrupt character (ctrl-c) again, if it was disabled.
+     */
+    public synchronized void enableInterruptCharacter()
     {
+        if (!interruptDisabled) {
+            return;
+        }
         try {
             settings.set("intr ^C");
+            interruptDisabled = false;
         }
         catch (Exception e) {
             if (e instanceof InterruptedException) {
@@ -130,4 +265,11 @@ public class UnixTerminal
             Log.error("Failed to enable interrupt character", e);
         }
     }
+
+    /**
+     * @since 2.13
+     */
+    public synchronized boolean isInterruptCharacterDisabled() {
+        return interruptDisabled;
+    }
 }
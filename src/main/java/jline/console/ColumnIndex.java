@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.console;
+
+import scala.tools.jline.internal.DisplayWidth;
+
+/**
+ * Maps the characters of the line being edited to the cells they take on screen.
+ * <p/>
+ * Characters are grouped into clusters, each taking one cell or two for East Asian wide
+ * characters: a surrogate pair is one cluster, and combining and other zero-width
+ * characters join the cluster before them. A wide cluster which doesn't fit in what is
+ * left of a row moves to the next one, like terminals do, leaving a blank cell.
+ * <p/>
+ * The mapping is kept from one frame to the next, and only laid out again from the first
+ * character which changed; typing at the end of a long line just extends it.
+ *
+ * @since 2.13
+ */
+final class ColumnIndex
+{
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * The cell where the cluster of each character starts.
+     */
+    private int[] cells = new int[64];
+
+    /**
+     * The cell after the cluster of each character.
+     */
+    private int[] ends = new int[64];
+
+    private int start;
+
+    private int width;
+
+    private boolean valid;
+
+    /**
+     * Forgets the layout; the next update lays out the whole text.
+     */
+    void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Lays out the text, starting at the given cell, for rows of the given width.
+     *
+     * @return the index of the first character whose cell may have changed
+     */
+    int update(final CharSequence next, final int start, final int width) {
+        int first = 0;
+        if (valid && start == this.start && width == this.width) {
+            int common = Math.min(text.length(), next.length());
+            while (first < common && text.charAt(first) == next.charAt(first)) {
+                first++;
+            }
+            // a character joining the cluster before it changes the whole cluster
+            while (first > 0 && (isContinuation(next, first) || isContinuation(text, first))) {
+                first--;
+            }
+        }
+        this.start = start;
+        this.width = width;
+        valid = true;
+
+        int length = next.length();
+        text.setLength(first);
+        text.append(next, first, length);
+        if (cells.length < length) {
+            int capacity = Math.max(length, cells.length * 2);
+            cells = grow(cells, capacity);
+            ends = grow(ends, capacity);
+        }
+
+        int cell = first == 0 ? start : ends[first - 1];
+        int i = first;
+        while (i < length) {
+            int codePoint = Character.codePointAt(text, i);
+            int j = i + Character.charCount(codePoint);
+            while (j < length && isContinuation(text, j)) {
+                j += Character.charCount(Character.codePointAt(text, j));
+            }
+            int w = Character.isISOControl(codePoint) ? 1 : Math.max(DisplayWidth.wcwidth(codePoint), 1);
+            if (w == 2 && width > 1 && cell % width == width - 1) {
+                cell++;
+            }
+            for (int k = i; k < j; k++) {
+                cells[k] = cell;
+                ends[k] = cell + w;
+            }
+            cell += w;
+            i = j;
+        }
+        return first;
+    }
+
+    /**
+     * Extends the layout with a character taking one cell, which doesn't join the cluster
+     * before it.
+     */
+    void append(final char c) {
+        int length = text.length();
+        if (cells.length == length) {
+            cells = grow(cells, length * 2);
+            ends = grow(ends, length * 2);
+        }
+        int cell = end();
+        text.append(c);
+        cells[length] = cell;
+        ends[length] = cell + 1;
+    }
+
+    int length() {
+        return text.length();
+    }
+
+    /**
+     * Returns the cell where the cluster of a character starts; the cell after the text
+     * for the length of the text.
+     */
+    int cell(final int index) {
+        return index < text.length() ? cells[index] : end();
+    }
+
+    /**
+     * Returns the cell after the cluster of a character.
+     */
+    int end(final int index) {
+        return ends[index];
+    }
+
+    /**
+     * Returns the cell after the text.
+     */
+    int end() {
+        return text.length() > 0 ? ends[text.length() - 1] : start;
+    }
+
+    private static int[] grow(final int[] array, final int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * Returns whether the character at the index joins the cluster before it.
+     */
+    private static boolean isContinuation(final CharSequence str, final int index) {
+        if (index >= str.length()) {
+            return false;
+        }
+        char c = str.charAt(index);
+        if (c < 0x300) {
+            return false;
+        }
+        if (Character.isLowSurrogate(c)) {
+            return true;
+        }
+        int codePoint = Character.codePointAt(str, index);
+        return !Character.isISOControl(codePoint) && DisplayWidth.wcwidth(codePoint) == 0;
+    }
+}
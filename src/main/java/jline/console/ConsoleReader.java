@@ -16,14 +16,12 @@ import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.event.ActionListener;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.URL;
@@ -31,12 +29,14 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.ResourceBundle;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import scala.tools.jline.Terminal;
 import scala.tools.jline.TerminalFactory;
@@ -47,12 +47,18 @@ import scala.tools.jline.console.completer.CompletionHandler;
 import scala.tools.jline.console.history.History;
 import scala.tools.jline.console.history.MemoryHistory;
 import scala.tools.jline.internal.Configuration;
+import scala.tools.jline.internal.DisplayWidth;
 import scala.tools.jline.internal.InputStreamReader;
 import scala.tools.jline.internal.Log;
+import scala.tools.jline.internal.MeteredOutputStream;
 import scala.tools.jline.internal.NonBlockingInputStream;
 import scala.tools.jline.internal.Nullable;
+import scala.tools.jline.internal.TerminalLineSettings;
+import scala.tools.jline.internal.TerminalWriter;
+import scala.tools.jline.internal.Terminfo;
+import scala.tools.jline.internal.Terminfo.Capability;
+import scala.tools.jline.internal.TestAccessible;
 import scala.tools.jline.internal.Urls;
-import org.fusesource.jansi.AnsiOutputStream;
 
 import static scala.tools.jline.internal.Preconditions.checkNotNull;
 
@@ -75,6 +81,13 @@ public class ConsoleReader
 
     public static final String JLINE_INPUTRC = "jline.inputrc";
 
+    /**
+     * Least time in milliseconds between two frames drawn while more input is waiting.
+     *
+     * @since 2.13
+     */
+    public static final String JLINE_REDRAW_INTERVAL = "jline.redraw.interval";
+
     public static final String INPUT_RC = ".inputrc";
 
     public static final String DEFAULT_INPUT_RC = "/etc/inputrc";
@@ -96,17 +109,48 @@ public class ConsoleReader
 
     private final Writer out;
 
+    private final MeteredOutputStream meter;
+
     private final CursorBuffer buf = new CursorBuffer();
 
     private String prompt;
     private int    promptLen;
 
+    /**
+     * The last line of the prompt, worked out along with its width when the prompt changes.
+     */
+    private String promptLine = "";
+
+    private Terminfo terminfo;
+
+    private ScreenRenderer screen;
+
+    private boolean redrawPending;
+
+    /**
+     * Where the text not drawn yet starts in the buffer, when it was only typed at the end of
+     * the line since the last frame; -1 if anything else may have changed.
+     */
+    private int appendedFrom = -1;
+
+    /**
+     * The line as shown when it differs from the buffer, with tabs expanded or masked.
+     */
+    private final StringBuilder display = new StringBuilder();
+
+    /**
+     * Text on its way to the terminal is copied here, rather than into new arrays.
+     */
+    private final char[] scratch = new char[256];
+
     private boolean expandEvents = true;
 
     private boolean bellEnabled = !Configuration.getBoolean(JLINE_NOBELL, true);
 
     private boolean handleUserInterrupt = false;
 
+    private boolean keepInterruptDisabled = false;
+
     private Character mask;
 
     private Character echoCharacter;
@@ -119,6 +163,34 @@ public class ConsoleReader
 
     private int parenBlinkTimeout = 500;
 
+    /**
+     * Number of terminal size queries made by the current {@link #readLine}, for diagnostics.
+     */
+    private int sizeQueries;
+
+    /**
+     * Number of keystrokes read by the current {@link #readLine}, for diagnostics.
+     */
+    private int keystrokes;
+
+    /**
+     * True while a key binding is dispatched. Flushes are deferred until the dispatch is done,
+     * so that everything it draws reaches the terminal in one write.
+     */
+    private boolean dispatching;
+
+    private boolean flushPending;
+
+    /**
+     * Least time between two frames while more input is waiting, in nanoseconds.
+     */
+    private final long redrawInterval = Configuration.getLong(JLINE_REDRAW_INTERVAL, 50) * 1000000L;
+
+    /**
+     * When the last frame was flushed, from {@link System#nanoTime}.
+     */
+    private long lastFrame;
+
     /*
      * The reader and the nonBlockingInput go hand-in-hand.  The reader wraps
      * the nonBlockingInput, but we have to retain a handle to it so that
@@ -228,7 +300,8 @@ public class ConsoleReader
         this.encoding = encoding != null ? encoding : Configuration.getEncoding();
         this.terminal = term != null ? term : TerminalFactory.get();
         String outEncoding = terminal.getOutputEncoding() != null? terminal.getOutputEncoding() : this.encoding;
-        this.out = new OutputStreamWriter(terminal.wrapOutIfNeeded(out), outEncoding);
+        this.meter = new MeteredOutputStream(terminal.wrapOutIfNeeded(out));
+        this.out = new TerminalWriter(meter, outEncoding);
         setInput( in );
 
         this.inputrcUrl = getInputRc();
@@ -296,6 +369,10 @@ public class ConsoleReader
         if (in != null) {
             in.shutdown();
         }
+        // whatever the flags are now, intr may have been left disabled by the last line
+        if (terminal instanceof UnixTerminal && ((UnixTerminal) terminal).isInterruptCharacterDisabled()) {
+            ((UnixTerminal) terminal).enableInterruptCharacter();
+        }
     }
 
     /**
@@ -396,6 +473,29 @@ public class ConsoleReader
         return handleUserInterrupt;
     }
 
+    /**
+     * Set whether the interrupt character stays disabled between calls to
+     * {@link #readLine} when user interrupts are handled, instead of being
+     * disabled and enabled again for every line, which costs two terminal
+     * mode switches. While set, ctrl-C does not raise {@code SIGINT} until
+     * {@link #shutdown} is called or the terminal is restored.
+     * The default is {@code false}.
+     *
+     * @since 2.13
+     */
+    public void setKeepInterruptDisabled(boolean enabled)
+    {
+        this.keepInterruptDisabled = enabled;
+    }
+
+    /**
+     * @since 2.13
+     */
+    public boolean getKeepInterruptDisabled()
+    {
+        return keepInterruptDisabled;
+    }
+
     /**
      * Sets the string that will be used to start a comment when the
      * insert-comment key is struck.
@@ -424,8 +524,12 @@ public class ConsoleReader
     }
 
     public void setPrompt(final String prompt) {
+        // the same prompt is usually set again for each line
+        if (prompt != this.prompt) {
+            this.promptLine = lastLine(prompt);
+            this.promptLen = DisplayWidth.width(promptLine);
+        }
         this.prompt = prompt;
-        this.promptLen = ((prompt == null) ? 0 : stripAnsi(lastLine(prompt)).length());
     }
 
     public String getPrompt() {
@@ -496,7 +600,7 @@ public class ConsoleReader
 
     int getCursorPosition() {
         // FIXME: does not handle anything but a line with a prompt absolute position
-        return promptLen + buf.cursor;
+        return promptLen + DisplayWidth.width(buf.buffer, 0, buf.cursor);
     }
 
     /**
@@ -506,7 +610,7 @@ public class ConsoleReader
      */
     private String lastLine(String str) {
         if (str == null) return "";
-        int last = str.lastIndexOf("\n");
+        int last = str.lastIndexOf('\n');
 
         if (last >= 0) {
             return str.substring(last + 1, str.length());
@@ -515,19 +619,6 @@ public class ConsoleReader
         return str;
     }
 
-    private String stripAnsi(String str) {
-        if (str == null) return "";
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            AnsiOutputStream aos = new AnsiOutputStream(baos);
-            aos.write(str.getBytes());
-            aos.flush();
-            return baos.toString();
-        } catch (IOException e) {
-            return str;
-        }
-    }
-
     /**
      * Move the cursor position to the specified absolute index.
      */
@@ -551,29 +642,10 @@ public class ConsoleReader
             return;
         }
 
-        // obtain the difference between the current buffer and the new one
-        int sameIndex = 0;
-
-        for (int i = 0, l1 = buffer.length(), l2 = buf.buffer.length(); (i < l1)
-            && (i < l2); i++) {
-            if (buffer.charAt(i) == buf.buffer.charAt(i)) {
-                sameIndex++;
-            }
-            else {
-                break;
-            }
-        }
-
-        int diff = buf.cursor - sameIndex;
-        if (diff < 0) { // we can't backspace here so try from the end of the buffer
-            moveToEnd();
-            diff = buf.buffer.length() - sameIndex;
-        }
-
-        backspace(diff); // go back for the differences
-        killLine(); // clear to the end of the line
-        buf.buffer.setLength(sameIndex); // the new length
-        putString(buffer.substring(sameIndex)); // append the differences
+        // the screen is updated with the difference only
+        buf.buffer.replace(0, buf.buffer.length(), buffer);
+        buf.cursor = buffer.length();
+        drawBuffer();
     }
 
     private void setBuffer(final CharSequence buffer) throws IOException {
@@ -599,12 +671,7 @@ public class ConsoleReader
             print(prompt);
         }
 
-        print(buf.buffer.toString());
-
-        if (buf.length() != buf.cursor) { // not at end of line
-            back(buf.length() - buf.cursor - 1);
-        }
-        // force drawBuffer to check for weird wrap (after clear screen)
+        getScreen().reset(promptLine, promptLen, getTerminalWidth());
         drawBuffer();
     }
 
@@ -816,7 +883,7 @@ public class ConsoleReader
         if (!str.equals(result)) {
             print(result);
             println();
-            flush();
+            deferredFlush();
         }
         return result;
 
@@ -826,122 +893,99 @@ public class ConsoleReader
      * Write out the specified string to the buffer and the output stream.
      */
     public final void putString(final CharSequence str) throws IOException {
+        int length = buf.length();
+        boolean append = buf.cursor == length;
         buf.write(str);
-        if (mask == null) {
-            // no masking
-            print(str);
-        } else if (mask == NULL_MASK) {
-            // don't print anything
-        } else {
-            print(mask, str.length());
+        if (append) {
+            drawAppended(length);
+        }
+        else {
+            drawBuffer();
         }
-        drawBuffer();
     }
 
     /**
-     * Redraw the rest of the buffer from the cursor onwards. This is necessary
-     * for inserting text into the buffer.
-     *
-     * @param clear the number of characters to clear after the end of the buffer
+     * Marks the line as changed. The screen is brought up to date with the prompt and the
+     * buffer before anything else is printed, and on {@link #flush}, so a series of edits
+     * is drawn at once.
      */
-    private void drawBuffer(final int clear) throws IOException {
-        // debug ("drawBuffer: " + clear);
-        if (buf.cursor == buf.length() && clear == 0) {
-        } else {
-            char[] chars = buf.buffer.substring(buf.cursor).toCharArray();
-            if (mask != null) {
-                Arrays.fill(chars, mask);
-            }
-            if (terminal.hasWeirdWrap()) {
-                // need to determine if wrapping will occur:
-                int width = terminal.getWidth();
-                int pos = getCursorPosition();
-                for (int i = 0; i < chars.length; i++) {
-                    print(chars[i]);
-                    if ((pos + i + 1) % width == 0) {
-                        print(32); // move cursor to next line by printing dummy space
-                        print(13); // CR / not newline.
-                    }
-                }
-            } else {
-                print(chars);
-            }
-            clearAhead(clear, chars.length);
-            if (terminal.isAnsiSupported()) {
-                if (chars.length > 0) {
-                    back(chars.length);
-                }
-            } else {
-                back(chars.length);
-            }
-        }
-        if (terminal.hasWeirdWrap()) {
-            int width = terminal.getWidth();
-            // best guess on whether the cursor is in that weird location...
-            // Need to do this without calling ansi cursor location methods
-            // otherwise it breaks paste of wrapped lines in xterm.
-            if (getCursorPosition() > 0 && (getCursorPosition() % width == 0)
-                    && buf.cursor == buf.length() && clear == 0) {
-                // the following workaround is reverse-engineered from looking
-                // at what bash sent to the terminal in the same situation
-                print(32); // move cursor to next line by printing dummy space
-                print(13); // CR / not newline.
-            }
-        }
+    private void drawBuffer() {
+        redrawPending = true;
+        appendedFrom = -1;
     }
 
     /**
-     * Redraw the rest of the buffer from the cursor onwards. This is necessary
-     * for inserting text into the buffer.
+     * Marks the text from the given character on as typed at the end of the line. Unless
+     * something else changed as well, it is drawn without going through the whole line.
      */
-    private void drawBuffer() throws IOException {
-        drawBuffer(0);
+    private void drawAppended(final int from) {
+        if (!redrawPending) {
+            redrawPending = true;
+            appendedFrom = from;
+        }
     }
 
     /**
-     * Clear ahead the specified number of characters without moving the cursor.
-     *
-     * @param num the number of characters to clear
-     * @param delta the difference between the internal cursor and the screen
-     * cursor - if > 0, assume some stuff was printed and weird wrap has to be
-     * checked
+     * Draws the pending changes to the line, if any.
      */
-    private void clearAhead(final int num, int delta) throws IOException {
-        if (num == 0) {
+    private void render() throws IOException {
+        if (!redrawPending) {
             return;
         }
+        redrawPending = false;
 
-        if (terminal.isAnsiSupported()) {
-            int width = terminal.getWidth();
-            int screenCursorCol = getCursorPosition() + delta;
-            // clear current line
-            printAnsiSequence("K");
-            // if cursor+num wraps, then we need to clear the line(s) below too
-            int curCol = screenCursorCol % width;
-            int endCol = (screenCursorCol + num - 1) % width;
-            int lines = num / width;
-            if (endCol < curCol) lines++;
-            for (int i = 0; i < lines; i++) {
-                printAnsiSequence("B");
-                printAnsiSequence("2K");
-            }
-            for (int i = 0; i < lines; i++) {
-                printAnsiSequence("A");
+        if (appendedFrom >= 0) {
+            int from = appendedFrom;
+            appendedFrom = -1;
+            if (mask == null && buf.cursor == buf.length() && getScreen().append(promptLine, buf.buffer, from)) {
+                return;
             }
-            return;
         }
 
-        // print blank extra characters
-        print(' ', num);
-
-        // we need to flush here so a "clever" console doesn't just ignore the redundancy
-        // of a space followed by a backspace.
-//        flush();
+        // tabs are shown as spaces, the way print() writes them
+        CharSequence text = buf.buffer;
+        int cursor = buf.cursor;
+        if (mask == null && buf.buffer.indexOf("\t") >= 0) {
+            display.setLength(0);
+            for (int i = 0; i < buf.length(); i++) {
+                if (i == buf.cursor) {
+                    cursor = display.length();
+                }
+                char c = buf.buffer.charAt(i);
+                if (c == '\t') {
+                    for (int j = 0; j < TAB_WIDTH; j++) {
+                        display.append(' ');
+                    }
+                }
+                else {
+                    display.append(c);
+                }
+            }
+            if (buf.cursor == buf.length()) {
+                cursor = display.length();
+            }
+            text = display;
+        }
+        else if (mask != null && mask == NULL_MASK) {
+            text = "";
+            cursor = 0;
+        }
+        else if (mask != null) {
+            display.setLength(0);
+            for (int i = 0; i < buf.length(); i++) {
+                display.append(mask);
+            }
+            text = display;
+        }
 
-        // reset the visual cursor
-        back(num);
+        getScreen().render(promptLine, promptLen, text, cursor, getTerminalWidth());
+    }
 
-//        flush();
+    private ScreenRenderer getScreen() {
+        if (screen == null) {
+            screen = new ScreenRenderer(out, terminal, getTerminfo());
+        }
+        return screen;
     }
 
     /**
@@ -949,23 +993,16 @@ public class ConsoleReader
      */
     protected void back(final int num) throws IOException {
         if (num == 0) return;
-        if (terminal.isAnsiSupported()) {
-            int width = getTerminal().getWidth();
-            int cursor = getCursorPosition();
-            int realCursor = cursor + num;
-            int realCol  = realCursor % width;
-            int newCol = cursor % width;
-            int moveup = num / width;
-            int delta = realCol - newCol;
-            if (delta < 0) moveup++;
-            if (moveup > 0) {
-                printAnsiSequence(moveup + "A");
-            }
-            printAnsiSequence((1 + newCol) + "G");
-            return;
-        }
-        print(BACKSPACE, num);
-//        flush();
+        render();
+        getScreen().back(num);
+    }
+
+    /**
+     * Returns the terminal width, counting the query for the per-line diagnostics.
+     */
+    private int getTerminalWidth() {
+        sizeQueries++;
+        return terminal.getWidth();
     }
 
     /**
@@ -973,7 +1010,53 @@ public class ConsoleReader
      * keyboard) that we want the console to handle immediately.
      */
     public void flush() throws IOException {
+        flushFrame();
+    }
+
+    /**
+     * Flushes, unless a key binding is being dispatched; then the flush is left to the end
+     * of the dispatch, so that everything it draws reaches the terminal in one write.
+     */
+    private void deferredFlush() throws IOException {
+        if (dispatching) {
+            flushPending = true;
+            return;
+        }
+        flushFrame();
+    }
+
+    /**
+     * Draws the line and flushes everything written since the last flush to the terminal.
+     */
+    private void flushFrame() throws IOException {
+        flushPending = false;
+        render();
         out.flush();
+        lastFrame = System.nanoTime();
+    }
+
+    /**
+     * Ends the dispatch of a binding. What it changed is drawn and flushed by
+     * {@link #readCharacter()}, once no more input is waiting, so that pasted text or an
+     * expanded macro is drawn in one frame rather than one per character. While input keeps
+     * coming, a frame is still shown every redraw interval.
+     *
+     * @param more whether keys pushed back by the dispatch are waiting
+     */
+    private void endDispatch(final boolean more) throws IOException {
+        dispatching = false;
+        flushPending = true;
+        if (System.nanoTime() - lastFrame >= redrawInterval && (more || reader.ready())) {
+            flushFrame();
+        }
+    }
+
+    /**
+     * Returns the stream counting the writes and flushes that reach the terminal.
+     */
+    @TestAccessible
+    MeteredOutputStream getOutputMeter() {
+        return meter;
     }
 
     private int backspaceAll() throws IOException {
@@ -986,40 +1069,14 @@ public class ConsoleReader
      * @return the number of characters backed up
      */
     private int backspace(final int num) throws IOException {
-        if (buf.cursor == 0) {
+        int count = Math.min(num, buf.cursor);
+        if (count == 0) {
             return 0;
         }
 
-        int count = 0;
-
-        int termwidth = getTerminal().getWidth();
-        int lines = getCursorPosition() / termwidth;
-        count = moveCursor(-1 * num) * -1;
+        buf.cursor -= count;
         buf.buffer.delete(buf.cursor, buf.cursor + count);
-        if (getCursorPosition() / termwidth != lines) {
-            if (terminal.isAnsiSupported()) {
-                // debug("doing backspace redraw: " + getCursorPosition() + " on " + termwidth + ": " + lines);
-                printAnsiSequence("K");
-                // if cursor+num wraps, then we need to clear the line(s) below too
-                // last char printed is one pos less than cursor so we subtract
-                // one
-/*
-                // TODO: fixme (does not work - test with reverse search with wrapping line and CTRL-E)
-                int endCol = (getCursorPosition() + num - 1) % termwidth;
-                int curCol = getCursorPosition() % termwidth;
-                if (endCol < curCol) lines++;
-                for (int i = 1; i < lines; i++) {
-                    printAnsiSequence("B");
-                    printAnsiSequence("2K");
-                }
-                for (int i = 1; i < lines; i++) {
-                    printAnsiSequence("A");
-                }
-                return count;
-*/
-            }
-        }
-        drawBuffer(count);
+        drawBuffer();
 
         return count;
     }
@@ -1049,7 +1106,7 @@ public class ConsoleReader
         }
 
         buf.buffer.deleteCharAt(buf.cursor);
-        drawBuffer(1);
+        drawBuffer();
         return true;
     }
 
@@ -1141,7 +1198,7 @@ public class ConsoleReader
                     ch = Character.toUpperCase(ch);
                 }
                 buf.buffer.setCharAt(buf.cursor, ch);
-                drawBuffer(1);
+                drawBuffer();
                 moveCursor(1);
             }
         }
@@ -1167,7 +1224,7 @@ public class ConsoleReader
             ok = buf.cursor < buf.buffer.length ();
             if (ok) {
                 buf.buffer.setCharAt(buf.cursor, (char) c);
-                drawBuffer(1);
+                drawBuffer();
                 if (i < (count-1)) {
                     moveCursor(1);
                 }
@@ -1236,7 +1293,7 @@ public class ConsoleReader
         setCursorPosition(startPos);
         buf.cursor = startPos;
         buf.buffer.delete(startPos, endPos);
-        drawBuffer(endPos - startPos);
+        drawBuffer();
         
         // If we are doing a delete operation (e.g. "d$") then don't leave the
         // cursor dangling off the end. In reality the "isChange" flag is silly
@@ -1593,14 +1650,6 @@ public class ConsoleReader
     private boolean insert(int count, final CharSequence str) throws IOException {
         for (int i = 0; i < count; i++) {
             buf.write(str);
-            if (mask == null) {
-                // no masking
-                print(str);
-            } else if (mask == NULL_MASK) {
-                // don't print anything
-            } else {
-                print(mask, str.length());
-            }
         }
         drawBuffer();
         return true;
@@ -1625,7 +1674,7 @@ public class ConsoleReader
 
         // Our new "prompt" is the character that got us into search mode.
         putString(Character.toString(searchChar));
-        flush();
+        deferredFlush();
 
         boolean isAborted = false;
         boolean isComplete = false;
@@ -1662,7 +1711,7 @@ public class ConsoleReader
                     putString(Character.toString((char) ch));
             }
 
-            flush();
+            deferredFlush();
         }
 
         // If we aborted, then put ourself at the end of the original buffer.
@@ -1726,7 +1775,7 @@ public class ConsoleReader
         killLine();
         putString(history.get(idx));
         setCursorPosition(0);
-        flush();
+        deferredFlush();
 
         /*
          * While searching really only the "n" and "N" keys are interpreted
@@ -1768,7 +1817,7 @@ public class ConsoleReader
                 default:
                     isComplete = true;
             }
-            flush();
+            deferredFlush();
         }
 
         /*
@@ -1790,7 +1839,8 @@ public class ConsoleReader
 
 
          if (in.isNonBlockingEnabled()) {
-            in.peek(parenBlinkTimeout);
+            flushFrame();
+            awaitInput(parenBlinkTimeout);
          }
 
          setCursorPosition(closePosition);
@@ -2015,7 +2065,7 @@ public class ConsoleReader
     public String accept() throws IOException {
         moveToEnd();
         println(); // output newline
-        flush();
+        deferredFlush();
         return finishBuffer();
     }
 
@@ -2061,63 +2111,8 @@ public class ConsoleReader
      * @param where the number of characters to move to the right or left.
      */
     private void moveInternal(final int where) throws IOException {
-        // debug ("move cursor " + where + " ("
-        // + buf.cursor + " => " + (buf.cursor + where) + ")");
         buf.cursor += where;
-
-        if (terminal.isAnsiSupported()) {
-            if (where < 0) {
-                back(Math.abs(where));
-            } else {
-                int width = getTerminal().getWidth();
-                int cursor = getCursorPosition();
-                int oldLine = (cursor - where) / width;
-                int newLine = cursor / width;
-                if (newLine > oldLine) {
-                    printAnsiSequence((newLine - oldLine) + "B");
-                }
-                printAnsiSequence(1 +(cursor % width) + "G");
-            }
-//            flush();
-            return;
-        }
-
-        char c;
-
-        if (where < 0) {
-            int len = 0;
-            for (int i = buf.cursor; i < buf.cursor - where; i++) {
-                if (buf.buffer.charAt(i) == '\t') {
-                    len += TAB_WIDTH;
-                }
-                else {
-                    len++;
-                }
-            }
-
-            char chars[] = new char[len];
-            Arrays.fill(chars, BACKSPACE);
-            out.write(chars);
-
-            return;
-        }
-        else if (buf.cursor == 0) {
-            return;
-        }
-        else if (mask != null) {
-            c = mask;
-        }
-        else {
-            print(buf.buffer.substring(buf.cursor - where, buf.cursor).toCharArray());
-            return;
-        }
-
-        // null character mask: don't output anything
-        if (mask == NULL_MASK) {
-            return;
-        }
-
-        print(c, Math.abs(where));
+        drawBuffer();
     }
 
     // FIXME: replace() is not used
@@ -2126,7 +2121,7 @@ public class ConsoleReader
         buf.buffer.replace(buf.cursor - num, buf.cursor, replacement);
         try {
             moveCursor(-num);
-            drawBuffer(Math.max(0, num - replacement.length()));
+            drawBuffer();
             moveCursor(replacement.length());
         }
         catch (IOException e) {
@@ -2142,8 +2137,13 @@ public class ConsoleReader
      * @return the character, or -1 if an EOF is received.
      */
     public final int readCharacter() throws IOException {
+        // show the pending output before waiting for the user
+        if ((flushPending || dispatching) && !reader.ready()) {
+            flushFrame();
+        }
         int c = reader.read();
         if (c >= 0) {
+            keystrokes++;
             Log.trace("Keystroke: ", c);
             // clear any echo characters
             if (terminal.isSupported()) {
@@ -2164,8 +2164,9 @@ public class ConsoleReader
 
         // otherwise, clear
         int num = countEchoCharacters(c);
-        back(num);
-        drawBuffer(num);
+        render();
+        getScreen().echoed(num);
+        drawBuffer();
 
         return num;
     }
@@ -2309,6 +2310,10 @@ public class ConsoleReader
          */
         int repeatCount = 0;
 
+        sizeQueries = 0;
+        keystrokes = 0;
+        meter.reset();
+
         // FIXME: This blows, each call to readLine will reset the console's state which doesn't seem very nice.
         this.mask = mask;
         if (prompt != null) {
@@ -2327,12 +2332,16 @@ public class ConsoleReader
                 out.write(prompt);
                 out.flush();
             }
+            lastFrame = System.nanoTime();
 
             // if the terminal is unsupported, just use plain-java reading
             if (!terminal.isSupported()) {
                 return readLineSimple();
             }
 
+            getScreen().reset(promptLine, promptLen, getTerminalWidth());
+            drawBuffer();
+
             if (handleUserInterrupt && (terminal instanceof UnixTerminal)) {
                 ((UnixTerminal) terminal).disableInterruptCharacter();
             }
@@ -2344,19 +2353,46 @@ public class ConsoleReader
             boolean success = true;
 
             StringBuilder sb = new StringBuilder();
-            Stack<Character> pushBackChar = new Stack<Character>();
+            PushBackBuffer pushBackChar = new PushBackBuffer();
+            // the map the keys in sb led to, and the longest of them bound on its own
+            KeyMap keyState = null;
+            KeyMap fallback = null;
+            int fallbackLength = 0;
             while (true) {
-                int c = pushBackChar.isEmpty() ? readCharacter() : pushBackChar.pop ();
+                if (pushBackChar.isEmpty() && sb.length() == 0) {
+                    awaitKey();
+                }
+                int c;
+                if (pushBackChar.isEmpty()) {
+                    c = readCharacter();
+                    // a character beyond the BMP is a single key
+                    if (Character.isHighSurrogate((char) c)) {
+                        int low = readCharacter();
+                        if (Character.isLowSurrogate((char) low)) {
+                            c = Character.toCodePoint((char) c, (char) low);
+                        }
+                        else if (low != -1) {
+                            pushBackChar.push(low);
+                        }
+                    }
+                }
+                else {
+                    c = pushBackChar.pop ();
+                }
                 if (c == -1) {
                     return null;
                 }
+                if (sb.length() == 0) {
+                    keyState = getKeys();
+                    fallback = null;
+                }
                 sb.appendCodePoint(c);
 
                 if (recording) {
                     macro += new String(new int[]{c}, 0, 1);
                 }
 
-                Object o = getKeys().getBound( sb );
+                Object o = keyState.step( c );
                 /*
                  * The kill ring keeps record of whether or not the
                  * previous command was a yank or a kill. We reset
@@ -2374,9 +2410,10 @@ public class ConsoleReader
                 }
 
                 if (o == Operation.DO_LOWERCASE_VERSION) {
-                    sb.setLength( sb.length() - 1);
-                    sb.append( Character.toLowerCase( (char) c ));
-                    o = getKeys().getBound( sb );
+                    sb.setLength( sb.length() - Character.charCount( c ));
+                    c = Character.toLowerCase( c );
+                    sb.appendCodePoint( c );
+                    o = keyState.step( c );
                 }
 
                 /*
@@ -2387,6 +2424,12 @@ public class ConsoleReader
                  * for the next key.
                  */
                 if ( o instanceof KeyMap ) {
+                    keyState = (KeyMap) o;
+                    if (keyState.getAnotherKey() != null) {
+                        fallback = keyState;
+                        fallbackLength = sb.length();
+                    }
+
                     /*
                      * The ESC key (#27) is special in that it is ambiguous until
                      * you know what is coming next.  The ESC could be a literal
@@ -2404,8 +2447,8 @@ public class ConsoleReader
                     if (c == 27
                             && pushBackChar.isEmpty()
                             && in.isNonBlockingEnabled()
-                            && in.peek(escapeTimeout) == -2) {
-                        o = ((KeyMap) o).getAnotherKey();
+                            && !awaitInput(escapeTimeout)) {
+                        o = keyState.getAnotherKey();
                         if (o == null || o instanceof KeyMap) {
                             continue;
                         }
@@ -2418,31 +2461,27 @@ public class ConsoleReader
 
                 /*
                  * If we didn't find a binding for the key and there is
-                 * more than one character accumulated then start checking
-                 * the largest span of characters from the beginning to
-                 * see if there is a binding for them.
+                 * more than one character accumulated then fall back on the
+                 * longest span of characters from the beginning which has a
+                 * binding of its own.
                  *
-                 * For example if our buffer has ESC,CTRL-M,C the getBound()
-                 * called previously indicated that there is no binding for
-                 * this sequence, so this then checks ESC,CTRL-M, and failing
-                 * that, just ESC. Each keystroke that is pealed off the end
-                 * during these tests is stuffed onto the pushback buffer so
+                 * For example if our buffer has ESC,CTRL-M,C there is no
+                 * binding for this sequence, so this then uses ESC,CTRL-M, and
+                 * failing that, just ESC. These were remembered as the keys
+                 * were looked up, so nothing is looked up again. The keystrokes
+                 * following the span are stuffed onto the pushback buffer so
                  * they won't be lost.
                  *
                  * If there is no binding found, then we go back to waiting for
                  * input.
                  */
-                while ( o == null && sb.length() > 0 ) {
-                    c = sb.charAt( sb.length() - 1 );
-                    sb.setLength( sb.length() - 1 );
-                    Object o2 = getKeys().getBound( sb );
-                    if ( o2 instanceof KeyMap ) {
-                        o = ((KeyMap) o2).getAnotherKey();
-                        if ( o == null ) {
-                            continue;
-                        } else {
-                            pushBackChar.push( (char) c );
-                        }
+                if ( o == null ) {
+                    if ( fallback != null ) {
+                        o = fallback.getAnotherKey();
+                        pushBackChar.push( sb, fallbackLength, sb.length() );
+                        sb.setLength( fallbackLength );
+                    } else {
+                        sb.setLength( 0 );
                     }
                 }
 
@@ -2450,15 +2489,15 @@ public class ConsoleReader
                     continue;
                 }
                 Log.trace("Binding: ", o);
+                dispatching = true;
 
 
                 // Handle macros
                 if (o instanceof String) {
                     String macro = (String) o;
-                    for (int i = 0; i < macro.length(); i++) {
-                        pushBackChar.push(macro.charAt(macro.length() - 1 - i));
-                    }
+                    pushBackChar.push(macro);
                     sb.setLength( 0 );
+                    endDispatch(true);
                     continue;
                 }
 
@@ -2466,6 +2505,7 @@ public class ConsoleReader
                 if (o instanceof ActionListener) {
                     ((ActionListener) o).actionPerformed(null);
                     sb.setLength( 0 );
+                    endDispatch(!pushBackChar.isEmpty());
                     continue;
                 }
 
@@ -2613,7 +2653,7 @@ public class ConsoleReader
                                 if (copyPasteDetection
                                     && c == 9
                                     && (!pushBackChar.isEmpty()
-                                        || (in.isNonBlockingEnabled() && in.peek(escapeTimeout) != -2))) {
+                                        || (in.isNonBlockingEnabled() && awaitInput(escapeTimeout)))) {
                                     isTabLiteral = true;
                                 }
 
@@ -2674,7 +2714,7 @@ public class ConsoleReader
                             case INTERRUPT:
                                 if (handleUserInterrupt) {
                                     println();
-                                    flush();
+                                    deferredFlush();
                                     String partialLine = buf.buffer.toString();
                                     buf.clear();
                                     history.moveToEnd();
@@ -2891,9 +2931,7 @@ public class ConsoleReader
                                 break;
 
                             case CALL_LAST_KBD_MACRO:
-                                for (int i = 0; i < macro.length(); i++) {
-                                    pushBackChar.push(macro.charAt(macro.length() - 1 - i));
-                                }
+                                pushBackChar.push(macro);
                                 sb.setLength( 0 );
                                 break;
 
@@ -2969,7 +3007,7 @@ public class ConsoleReader
                             case VI_SEARCH:
                                 int lastChar = viSearch(sb.charAt (0));
                                 if (lastChar != -1) {
-                                    pushBackChar.push((char)lastChar);
+                                    pushBackChar.push(lastChar);
                                 }
                                 break;
 
@@ -3146,16 +3184,22 @@ public class ConsoleReader
                     beep();
                 }
                 sb.setLength( 0 );
-                flush();
+                endDispatch(!pushBackChar.isEmpty());
             }
         }
         finally {
+            dispatching = false;
+            if (flushPending) {
+                flushFrame();
+            }
             if (!terminal.isSupported()) {
                 afterReadLine();
             }
-            if (handleUserInterrupt && (terminal instanceof UnixTerminal)) {
+            if (handleUserInterrupt && !keepInterruptDisabled && (terminal instanceof UnixTerminal)) {
                 ((UnixTerminal) terminal).enableInterruptCharacter();
             }
+            Log.trace("Terminal size queries: ", sizeQueries);
+            Log.trace("Terminal writes: ", meter.getWrites(), ", flushes: ", meter.getFlushes(), ", keystrokes: ", keystrokes);
         }
     }
 
@@ -3395,12 +3439,11 @@ public class ConsoleReader
      */
     private void print(final int c) throws IOException {
         if (c == '\t') {
-            char chars[] = new char[TAB_WIDTH];
-            Arrays.fill(chars, ' ');
-            out.write(chars);
+            print(' ', TAB_WIDTH);
             return;
         }
 
+        render();
         out.write(c);
     }
 
@@ -3408,58 +3451,67 @@ public class ConsoleReader
      * Output the specified characters to the output stream without manipulating the current buffer.
      */
     private void print(final char... buff) throws IOException {
+        render();
         int len = 0;
         for (char c : buff) {
-            if (c == '\t') {
-                len += TAB_WIDTH;
-            }
-            else {
-                len++;
-            }
+            len = scratch(c, len);
         }
+        out.write(scratch, 0, len);
+    }
 
-        char chars[];
-        if (len == buff.length) {
-            chars = buff;
-        }
-        else {
-            chars = new char[len];
-            int pos = 0;
-            for (char c : buff) {
-                if (c == '\t') {
-                    Arrays.fill(chars, pos, pos + TAB_WIDTH, ' ');
-                    pos += TAB_WIDTH;
-                }
-                else {
-                    chars[pos] = c;
-                    pos++;
-                }
-            }
+    private void print(final char c, final int num) throws IOException {
+        render();
+        int len = 0;
+        for (int i = 0; i < num; i++) {
+            len = scratch(c, len);
         }
-
-        out.write(chars);
+        out.write(scratch, 0, len);
     }
 
-    private void print(final char c, final int num) throws IOException {
-        if (num == 1) {
-            print(c);
+    /**
+     * Copies a character to the scratch buffer, writing the buffer out first when it is full.
+     * Tabs are expanded to spaces.
+     *
+     * @return the new length of the buffer
+     */
+    private int scratch(final char c, int len) throws IOException {
+        if (len + TAB_WIDTH > scratch.length) {
+            out.write(scratch, 0, len);
+            len = 0;
         }
-        else {
-            char[] chars = new char[num];
-            Arrays.fill(chars, c);
-            print(chars);
+        if (c == '\t') {
+            Arrays.fill(scratch, len, len + TAB_WIDTH, ' ');
+            return len + TAB_WIDTH;
         }
+        scratch[len] = c;
+        return len + 1;
     }
 
     /**
      * Output the specified string to the output stream (but not the buffer).
      */
     public final void print(final CharSequence s) throws IOException {
-        print(checkNotNull(s).toString().toCharArray());
+        checkNotNull(s);
+        render();
+        // NOTE: toString() is important here due to AnsiString being retarded
+        String str = s.toString();
+        if (str.indexOf('\t') < 0) {
+            for (int i = 0; i < str.length(); i += scratch.length) {
+                int end = Math.min(str.length(), i + scratch.length);
+                str.getChars(i, end, scratch, 0);
+                out.write(scratch, 0, end - i);
+            }
+            return;
+        }
+        int len = 0;
+        for (int i = 0; i < str.length(); i++) {
+            len = scratch(str.charAt(i), len);
+        }
+        out.write(scratch, 0, len);
     }
 
     public final void println(final CharSequence s) throws IOException {
-        print(checkNotNull(s).toString().toCharArray());
+        print(s);
         println();
     }
 
@@ -3471,6 +3523,86 @@ public class ConsoleReader
 //        flush();
     }
 
+    /**
+     * Lines waiting to be printed above the prompt.
+     */
+    private final Queue<CharSequence> above = new ConcurrentLinkedQueue<CharSequence>();
+
+    /**
+     * Whether the thread reading the line is waiting for a key, and has to be woken up to
+     * print the lines queued meanwhile.
+     */
+    private volatile boolean awaitingKey;
+
+    /**
+     * Output a line above the prompt, leaving the line being edited as it is. Unlike the
+     * other output methods, it may be called from any thread, such as one reporting on a
+     * background job: the line is queued, and the thread reading the line prints everything
+     * queued at once between two keystrokes, then draws the prompt and the line again
+     * below it. Lines queued while no line is being read come out when the next one starts.
+     *
+     * @since 2.13
+     */
+    public void printAbove(final CharSequence str) {
+        above.add(checkNotNull(str).toString());
+        if (awaitingKey) {
+            in.wakeUp();
+        }
+    }
+
+    /**
+     * Prints the lines queued by {@link #printAbove} until a key is typed. If the input
+     * can't be waited on without blocking, they are only printed as keys come in.
+     */
+    private void awaitKey() throws IOException {
+        // set before looking at the queue, so that a line queued after that wakes us up
+        awaitingKey = true;
+        try {
+            printQueued();
+            while (in.isNonBlockingEnabled() && !reader.ready()) {
+                if (flushPending) {
+                    flushFrame();
+                }
+                if (in.peek(0) != -2) {
+                    break;
+                }
+                printQueued();
+            }
+        }
+        finally {
+            awaitingKey = false;
+        }
+    }
+
+    /**
+     * Waits up to the given time for input, which may already have been read ahead into
+     * the reader.
+     *
+     * @return false if none came in time
+     */
+    private boolean awaitInput(final long timeout) throws IOException {
+        return reader.ready() || in.peek(timeout) != -2;
+    }
+
+    /**
+     * Erases the line once, prints all the queued lines in its place, and leaves the line to
+     * be drawn again below them.
+     */
+    private void printQueued() throws IOException {
+        CharSequence str = above.poll();
+        if (str == null) {
+            return;
+        }
+        render();
+        getScreen().erase();
+        do {
+            println(str);
+        }
+        while ((str = above.poll()) != null);
+        drawBuffer();
+        flushPending = true;
+    }
+
     //
     // Actions
     //
@@ -3486,7 +3618,7 @@ public class ConsoleReader
         }
 
         buf.buffer.delete(buf.cursor, buf.cursor + 1);
-        drawBuffer(1);
+        drawBuffer();
 
         return true;
     }
@@ -3505,12 +3637,12 @@ public class ConsoleReader
         }
 
         int num = len - cp;
-        clearAhead(num, 0);
-
         char[] killed = new char[num];
         buf.buffer.getChars(cp, (cp + num), killed, 0);
         buf.buffer.delete(cp, (cp + num));
 
+        drawBuffer();
+
         String copy = new String(killed);
         killRing.add(copy);
 
@@ -3555,11 +3687,9 @@ public class ConsoleReader
             return false;
         }
 
-        // send the ANSI code to clear the screen
-        printAnsiSequence("2J");
-
-        // then send the ANSI code to go to position 1,1
-        printAnsiSequence("1;1H");
+        // clear the screen and go to position 1,1
+        printCapability(Capability.CLEAR_SCREEN);
+        deferredFlush();
 
         return true;
     }
@@ -3571,7 +3701,7 @@ public class ConsoleReader
         if (bellEnabled) {
             print(KEYBOARD_BELL);
             // need to flush so the console actually beeps
-            flush();
+            deferredFlush();
         }
     }
 
@@ -3676,6 +3806,31 @@ public class ConsoleReader
     // Formatted Output
     //
 
+    /**
+     * Cells between two columns of {@link #printColumns}.
+     */
+    private static final int COLUMN_GAP = 3;
+
+    private boolean columnsVertical;
+
+    /**
+     * Whether {@link #printColumns} lists items down the columns, like <tt>ls</tt>, rather than across the rows.
+     *
+     * @since 2.13
+     */
+    public void setColumnsVertical(final boolean vertical) {
+        this.columnsVertical = vertical;
+    }
+
+    /**
+     * Whether {@link #printColumns} lists items down the columns, like <tt>ls</tt>, rather than across the rows.
+     *
+     * @since 2.13
+     */
+    public boolean isColumnsVertical() {
+        return columnsVertical;
+    }
+
     /**
      * Output the specified {@link Collection} in proper columns.
      */
@@ -3684,72 +3839,190 @@ public class ConsoleReader
             return;
         }
 
-        int width = getTerminal().getWidth();
-        int height = getTerminal().getHeight();
-
+        CharSequence[] cells = items.toArray(new CharSequence[items.size()]);
+        int[] widths = new int[cells.length];
         int maxWidth = 0;
-        for (CharSequence item : items) {
-            maxWidth = Math.max(maxWidth, item.length());
+        for (int i = 0; i < cells.length; i++) {
+            // NOTE: toString() is important here due to AnsiString being retarded
+            cells[i] = cells[i].toString();
+            widths[i] = DisplayWidth.width(cells[i]);
+            maxWidth = Math.max(maxWidth, widths[i]);
         }
-        maxWidth = maxWidth + 3;
         Log.debug("Max width: ", maxWidth);
 
-        int showLines;
-        if (isPaginationEnabled()) {
-            showLines = height - 1; // page limit
-        }
-        else {
-            showLines = Integer.MAX_VALUE;
+        printColumns(cells, widths, cells.length, maxWidth, getTerminalWidth(),
+            isPaginationEnabled() ? pageHeight() : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Output the items in proper columns as they come, a page at a time, so that the whole
+     * list never needs to be held. Each page is laid out on its own, with columns as wide
+     * as its widest item.
+     *
+     * @since 2.13
+     */
+    public void printColumns(final Iterator<? extends CharSequence> items) throws IOException {
+        if (items == null) {
+            return;
         }
 
-        StringBuilder buff = new StringBuilder();
-        for (CharSequence item : items) {
-            if ((buff.length() + maxWidth) > width) {
-                println(buff);
-                buff.setLength(0);
-
-                if (--showLines == 0) {
-                    // Overflow
-                    print(resources.getString("DISPLAY_MORE"));
-                    flush();
-                    int c = readCharacter();
-                    if (c == '\r' || c == '\n') {
-                        // one step forward
-                        showLines = 1;
-                    }
-                    else if (c != 'q') {
-                        // page forward
-                        showLines = height - 1;
-                    }
+        int pageHeight = pageHeight();
+        int showLines = isPaginationEnabled() ? pageHeight : Integer.MAX_VALUE;
+        CharSequence[] cells = new CharSequence[64];
+        int[] widths = new int[cells.length];
+        CharSequence next = null;
+        int nextWidth = 0;
+        while (next != null || items.hasNext()) {
+            if (showLines == 0) {
+                // ask before taking the next page
+                showLines = more();
+                if (showLines == 0) {
+                    return;
+                }
+            }
 
-                    back(resources.getString("DISPLAY_MORE").length());
-                    if (c == 'q') {
-                        // cancel
-                        break;
-                    }
+            int count = 0;
+            int maxWidth = 0;
+            int terminalWidth = getTerminalWidth();
+            while (next != null || items.hasNext()) {
+                if (next == null) {
+                    // NOTE: toString() is important here due to AnsiString being retarded
+                    next = items.next().toString();
+                    nextWidth = DisplayWidth.width(next);
+                }
+                int width = Math.max(maxWidth, nextWidth);
+                if (count > 0 && count >= columns(terminalWidth, width) * pageHeight) {
+                    // starts the next page
+                    break;
+                }
+                if (count == cells.length) {
+                    CharSequence[] grownCells = new CharSequence[count * 2];
+                    System.arraycopy(cells, 0, grownCells, 0, count);
+                    cells = grownCells;
+                    int[] grownWidths = new int[count * 2];
+                    System.arraycopy(widths, 0, grownWidths, 0, count);
+                    widths = grownWidths;
                 }
+                cells[count] = next;
+                widths[count] = nextWidth;
+                count++;
+                maxWidth = width;
+                next = null;
             }
 
-            // NOTE: toString() is important here due to AnsiString being retarded
-            buff.append(item.toString());
-            for (int i = 0; i < (maxWidth - item.length()); i++) {
-                buff.append(' ');
+            showLines = printColumns(cells, widths, count, maxWidth, terminalWidth, showLines);
+            if (showLines < 0) {
+                return;
             }
         }
+    }
+
+    /**
+     * Prints the rows of items, asking before every page once <tt>showLines</tt> rows are printed.
+     *
+     * @return the rows left to print before asking again, or -1 if the user cancelled
+     */
+    private int printColumns(final CharSequence[] items, final int[] widths, final int count, final int maxWidth,
+                             final int terminalWidth, int showLines)
+        throws IOException
+    {
+        int columns = columns(terminalWidth, maxWidth);
+        int rows = (count + columns - 1) / columns;
+        boolean vertical = isColumnsVertical();
+
+        for (int row = 0; row < rows; row++) {
+            if (showLines == 0) {
+                showLines = more();
+                if (showLines == 0) {
+                    return -1;
+                }
+            }
 
-        if (buff.length() > 0) {
-            println(buff);
+            int pad = 0;
+            for (int column = 0; column < columns; column++) {
+                int i = vertical ? column * rows + row : row * columns + column;
+                if (i >= count) {
+                    break;
+                }
+                print(' ', pad);
+                print(items[i]);
+                pad = maxWidth + COLUMN_GAP - widths[i];
+            }
+            println();
+            showLines--;
+        }
+        return showLines;
+    }
+
+    /**
+     * Returns how many columns of the given width fit next to each other, leaving the last cell
+     * of the row free.
+     */
+    private static int columns(final int terminalWidth, final int maxWidth) {
+        return Math.max(1, (terminalWidth - 1 + COLUMN_GAP) / (maxWidth + COLUMN_GAP));
+    }
+
+    private int pageHeight() {
+        return Math.max(1, getTerminal().getHeight() - 1);
+    }
+
+    /**
+     * Shows the pagination prompt.
+     *
+     * @return the rows to print before asking again, or 0 to cancel
+     */
+    private int more() throws IOException {
+        print(resources.getString("DISPLAY_MORE"));
+        deferredFlush();
+        int c = readCharacter();
+
+        // erase the message
+        print(RESET_LINE);
+        if (terminal.isAnsiSupported()) {
+            printCapability(Capability.CLR_EOL);
+        }
+        else {
+            print(' ', resources.getString("DISPLAY_MORE").length());
+            print(RESET_LINE);
         }
+
+        if (c == '\r' || c == '\n') {
+            // one step forward
+            return 1;
+        }
+        if (c == 'q' || c == -1) {
+            // cancel
+            return 0;
+        }
+        // page forward
+        return pageHeight();
     }
 
     //
     // Non-supported Terminal Support
     //
 
-    private Thread maskThread;
+    /**
+     * Bounds of the delay between two redraws of a masked prompt, in milliseconds. The
+     * delay doubles after every redraw up to about one display frame, which is as long
+     * as a character the terminal echoed may stay readable.
+     */
+    private static final long MASK_REDRAW_MIN = 3;
+
+    private static final long MASK_REDRAW_MAX = 16;
+
+    private volatile Thread maskThread;
+
+    private TerminalLineSettings maskSettings;
 
     private void beforeReadLine(final String prompt, final Character mask) {
-        if (mask != null && maskThread == null) {
+        if (mask != null && maskThread == null && maskSettings == null) {
+            // no need to hide what the terminal doesn't echo
+            maskSettings = suppressEcho();
+            if (maskSettings != null) {
+                return;
+            }
+
             final String fullPrompt = "\r" + prompt
                 + "                 "
                 + "                 "
@@ -3759,12 +4032,14 @@ public class ConsoleReader
             maskThread = new Thread()
             {
                 public void run() {
+                    long delay = MASK_REDRAW_MIN;
                     while (!interrupted()) {
                         try {
                             Writer out = getOutput();
                             out.write(fullPrompt);
                             out.flush();
-                            sleep(3);
+                            sleep(delay);
+                            delay = Math.min(delay * 2, MASK_REDRAW_MAX);
                         }
                         catch (IOException e) {
                             return;
@@ -3776,18 +4051,64 @@ public class ConsoleReader
                 }
             };
 
-            maskThread.setPriority(Thread.MAX_PRIORITY);
             maskThread.setDaemon(true);
             maskThread.start();
         }
     }
 
+    /**
+     * Returns the thread redrawing a masked prompt, if there is one.
+     */
+    @TestAccessible
+    Thread getMaskThread() {
+        return maskThread;
+    }
+
+    /**
+     * Turns echo off when standard input is a terminal, even if it isn't a supported one.
+     *
+     * @return the settings to restore afterwards, or null if echo could not be turned off.
+     */
+    private TerminalLineSettings suppressEcho() {
+        if (Configuration.isWindows() || !Boolean.TRUE.equals(TerminalFactory.isStdinTty())) {
+            return null;
+        }
+        try {
+            TerminalLineSettings settings = new TerminalLineSettings();
+            settings.set("-echo");
+            return settings;
+        }
+        catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            Log.debug("Unable to turn echo off: ", e);
+            return null;
+        }
+    }
+
     private void afterReadLine() {
         if (maskThread != null && maskThread.isAlive()) {
             maskThread.interrupt();
         }
 
         maskThread = null;
+
+        if (maskSettings != null) {
+            try {
+                maskSettings.restore();
+                // the newline wasn't echoed either
+                println();
+                deferredFlush();
+            }
+            catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                Log.error("Failed to restore echo", e);
+            }
+            maskSettings = null;
+        }
     }
 
     /**
@@ -3802,29 +4123,15 @@ public class ConsoleReader
      *            -1 for end of line.
      * */
     public void resetPromptLine(String prompt, String buffer, int cursorDest) throws IOException {
-        // move cursor to end of line
-        moveToEnd();
-
-        // backspace all text, including prompt
-        buf.buffer.append(this.prompt);
-        int promptLength = 0;
-        if (this.prompt != null) {
-            promptLength = this.prompt.length();
-        }
-
-        buf.cursor += promptLength;
-        setPrompt("");
-        backspaceAll();
-
         setPrompt(prompt);
-        redrawLine();
-        setBuffer(buffer);
+        buf.buffer.replace(0, buf.buffer.length(), buffer);
 
         // move cursor to destination (-1 will move to end of line)
         if (cursorDest < 0) cursorDest = buffer.length();
-        setCursorPosition(cursorDest);
+        buf.cursor = cursorDest;
+        drawBuffer();
 
-        flush();
+        deferredFlush();
     }
 
     public void printSearchStatus(String searchTerm, String match) throws IOException {
@@ -3964,11 +4271,38 @@ public class ConsoleReader
         return Character.isWhitespace (c);
     }
 
-    private void printAnsiSequence(String sequence) throws IOException {
-        print(27);
-        print('[');
-        print(sequence);
-        flush(); // helps with step debugging
+    //
+    // Terminal capabilities
+    //
+
+    /**
+     * Returns the capabilities of the terminal, looked up on first use: the terminfo entry
+     * for <tt>$TERM</tt> on unix, or else the plain ANSI sequences.
+     */
+    private Terminfo getTerminfo() {
+        if (terminfo == null) {
+            Terminfo entry = null;
+            if (terminal instanceof UnixTerminal) {
+                entry = Terminfo.forTerm(System.getenv("TERM"));
+            }
+            terminfo = entry != null ? entry : Terminfo.ANSI;
+        }
+        return terminfo;
+    }
+
+    /**
+     * Returns a capability of the terminal, or its ANSI equivalent when it has none.
+     */
+    private String capability(final Capability cap, final int... params) {
+        String str = getTerminfo().tparm(cap, params);
+        return str != null ? str : Terminfo.ANSI.tparm(cap, params);
+    }
+
+    private void printCapability(final Capability cap, final int... params) throws IOException {
+        String str = capability(cap, params);
+        if (str != null) {
+            print(str);
+        }
     }
 
 }
@@ -8,9 +8,13 @@
  */
 package scala.tools.jline.console;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
+import scala.tools.jline.internal.TestAccessible;
+
 /**
  * The KeyMap class contains all bindings from keys to operations.
  *
@@ -26,23 +30,85 @@ public class KeyMap {
     public static final String EMACS_CTLX     = "emacs-ctlx";
     public static final String EMACS_META     = "emacs-meta";
 
-    private static final int KEYMAP_LENGTH = 256;
+    private static final int KEYMAP_LENGTH = 128;
 
     private static final Object NULL_FUNCTION = new Object();
 
-    private Object[] mapping = new Object[KEYMAP_LENGTH];
+    /*
+     * ASCII keys are looked up in an array, and the few others bound in a
+     * table with open addressing, with the keys and what they are bound to
+     * side by side. Keys beyond ASCII which aren't in the table are bound
+     * to otherKeys, such as SELF_INSERT for the whole of Unicode.
+     */
+    private Object[] mapping;
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private Object otherKeys = null;
     private Object anotherKey = null;
     private String name;
     private boolean isViKeyMap;
+
+    /*
+     * The default maps are built once and shared by all readers, frozen.
+     * A reader's maps start out borrowing the storage of the frozen ones,
+     * and copy it the first time a key is bound in them; the maps of longer
+     * sequences are only copied when a key is bound in them too.
+     */
+    private boolean frozen;
+    private boolean borrowed;
+
+    /*
+     * A copy of a frozen map which getBound() returned, and the map and key it
+     * was reached through; it takes the place of the frozen one there once a
+     * key is bound in it.
+     */
+    private KeyMap parent;
+    private int parentKey;
+
+    private static final Map<String, KeyMap> DEFAULTS = freeze(defaultKeyMaps());
     
     public KeyMap(String name, boolean isViKeyMap) {
-        this(name, new Object[KEYMAP_LENGTH], isViKeyMap);
+        this.mapping = new Object[KEYMAP_LENGTH];
+        this.name = name;
+        this.isViKeyMap = isViKeyMap;
     }
 
+    /**
+     * Creates a map binding keys the way a frozen one does, until keys are bound in it.
+     */
+    private KeyMap(KeyMap base) {
+        this.name = base.name;
+        this.isViKeyMap = base.isViKeyMap;
+        this.mapping = base.mapping;
+        this.keys = base.keys;
+        this.values = base.values;
+        this.size = base.size;
+        this.otherKeys = base.otherKeys;
+        this.anotherKey = base.anotherKey;
+        this.borrowed = true;
+    }
+
+    /**
+     * Creates a map binding keys the way a frozen one reached through a key of the
+     * parent does, which replaces it in the parent once keys are bound in it.
+     */
+    private KeyMap(KeyMap base, KeyMap parent, int parentKey) {
+        this(base);
+        this.parent = parent;
+        this.parentKey = parentKey;
+    }
+
+    /**
+     * Creates a map binding each key to what is at its index in the array, if anything.
+     */
     protected KeyMap(String name, Object[] mapping, boolean isViKeyMap) {
-        this.mapping = mapping;
-        this.name = name;
-        this.isViKeyMap = isViKeyMap;
+        this(name, isViKeyMap);
+        for (int i = 0; i < mapping.length; i++) {
+            if (mapping[i] != null) {
+                put(i, mapping[i]);
+            }
+        }
     }
     
     public boolean isViKeyMap() {
@@ -57,33 +123,182 @@ public class KeyMap {
         return anotherKey;
     }
 
+    /**
+     * Makes this map bind keys the way the other one does.
+     */
     public void from(KeyMap other) {
-        this.mapping = other.mapping;
+        if (frozen) {
+            throw new UnsupportedOperationException("Keys can't be bound in a shared " + name + " map");
+        }
+        attach();
+        this.borrowed = false;
+        this.mapping = other.mapping.clone();
+        this.keys = other.keys != null ? other.keys.clone() : null;
+        this.values = other.values != null ? other.values.clone() : null;
+        this.size = other.size;
+        this.otherKeys = other.otherKeys;
         this.anotherKey = other.anotherKey;
     }
 
+    /**
+     * Returns what a sequence is bound to.
+     * <p/>
+     * The maps of longer sequences may be shared with other readers until keys are bound
+     * in them. A map returned for one of those is a copy, which takes the place of the
+     * shared one in this map the first time a key is bound in it; until then, looking the
+     * sequence up again returns another copy.
+     */
     public Object getBound( CharSequence keySeq ) {
         if (keySeq != null && keySeq.length() > 0) {
             KeyMap map = this;
-            for (int i = 0; i < keySeq.length(); i++) {
-                char c = keySeq.charAt(i);
-                if (c > 255) {
-                    return Operation.SELF_INSERT;
+            for (int i = 0; i < keySeq.length(); ) {
+                int key = Character.codePointAt(keySeq, i);
+                i += Character.charCount(key);
+                Object o = map.step(key);
+                if (o instanceof KeyMap && ((KeyMap) o).frozen && !map.frozen) {
+                    o = new KeyMap((KeyMap) o, map, key);
                 }
-                if (map.mapping[c] instanceof KeyMap) {
-                    if (i == keySeq.length() - 1) {
-                        return map.mapping[c];
-                    } else {
-                        map = (KeyMap) map.mapping[c];
-                    }
+                if (o instanceof KeyMap && i < keySeq.length()) {
+                    map = (KeyMap) o;
                 } else {
-                    return map.mapping[c];
+                    return o;
                 }
             }
         }
         return null;
     }
 
+    /**
+     * Returns the map of the keys which may follow a sequence, which keys can be bound in.
+     * Unlike {@link #getBound(CharSequence)}, it replaces the maps on the way which are
+     * shared with other readers with our own right away, so that it always returns the same
+     * map.
+     *
+     * @return the map, or null if the sequence isn't bound to one
+     * @since 2.13
+     */
+    public KeyMap getKeyMapForBinding( CharSequence keySeq ) {
+        if (frozen) {
+            throw new UnsupportedOperationException("Keys can't be bound in a shared " + name + " map");
+        }
+        if (!(getBound(keySeq) instanceof KeyMap)) {
+            return null;
+        }
+        KeyMap map = this;
+        for (int i = 0; i < keySeq.length(); ) {
+            int key = Character.codePointAt(keySeq, i);
+            i += Character.charCount(key);
+            map = map.own(key);
+        }
+        return map;
+    }
+
+    private KeyMap own( int key ) {
+        KeyMap map = (KeyMap) step(key);
+        if (map.frozen) {
+            map = new KeyMap(map);
+            put(key, map);
+        }
+        return map;
+    }
+
+    /**
+     * Returns what a key is bound to in this map. The maps bound to the first keys of
+     * longer sequences are the states of a trie, so a sequence is looked up one key at a
+     * time, each in the map the key before it led to, rather than from the start again.
+     * <p/>
+     * The maps returned may be shared with other readers, and keys can't be bound in
+     * them; {@link #getBound(CharSequence)} and {@link #getKeyMapForBinding(CharSequence)}
+     * return maps which keys can be bound in.
+     *
+     * @param key a code point
+     * @return the map of the keys which may follow, the operation or macro bound to the
+     *   key, or null if it is unbound
+     * @since 2.13
+     */
+    public Object step( int key ) {
+        if (key < KEYMAP_LENGTH) {
+            return mapping[key];
+        }
+        if (keys != null) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+        }
+        return otherKeys;
+    }
+
+    /**
+     * Puts this copy of a shared map in the place of the shared one, in the map it was
+     * reached through, before a key is bound in it.
+     */
+    private void attach() {
+        if (parent == null) {
+            return;
+        }
+        Object current = parent.step(parentKey);
+        if (!(current instanceof KeyMap) || !((KeyMap) current).frozen || ((KeyMap) current).mapping != mapping) {
+            throw new IllegalStateException("The " + name + " map was replaced since it was looked up");
+        }
+        parent.put(parentKey, this);
+        parent = null;
+    }
+
+    private void put( int key, Object function ) {
+        attach();
+        if (borrowed) {
+            mapping = mapping.clone();
+            keys = keys != null ? keys.clone() : null;
+            values = values != null ? values.clone() : null;
+            borrowed = false;
+        }
+        if (key < KEYMAP_LENGTH) {
+            mapping[key] = function;
+            return;
+        }
+        if (keys == null) {
+            keys = new int[8];
+            values = new Object[8];
+        }
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                values[i] = function;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = function;
+        // kept at most half full, so that probes stay short
+        if (++size * 2 > keys.length) {
+            int[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new Object[oldKeys.length * 2];
+            mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] != null) {
+                    int k = slot(oldKeys[j], mask);
+                    while (values[k] != null) {
+                        k = (k + 1) & mask;
+                    }
+                    keys[k] = oldKeys[j];
+                    values[k] = oldValues[j];
+                }
+            }
+        }
+    }
+
+    private static int slot( int key, int mask ) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
     public void bindIfNotBound( CharSequence keySeq, Object function ) {
         
         bind (this, keySeq, function, true);
@@ -102,29 +317,32 @@ public class KeyMap {
     private static void bind( KeyMap map, CharSequence keySeq, Object function, 
             boolean onlyIfNotBound ) {
 
+        if (map.frozen) {
+            throw new UnsupportedOperationException("Keys can't be bound in a shared " + map.name + " map");
+        }
         if (keySeq != null && keySeq.length() > 0) {
-            for (int i = 0; i < keySeq.length(); i++) {
-                char c = keySeq.charAt(i);
-                if (c >= map.mapping.length) {
-                    return;
-                }
-                if (i < keySeq.length() - 1) {
-                    if (!(map.mapping[c] instanceof KeyMap)) {
+            for (int i = 0; i < keySeq.length(); ) {
+                int c = Character.codePointAt(keySeq, i);
+                i += Character.charCount(c);
+                Object bound = map.step(c);
+                if (i < keySeq.length()) {
+                    if (!(bound instanceof KeyMap)) {
                         KeyMap m = new KeyMap("anonymous", false);
-                        if (map.mapping[c] != Operation.DO_LOWERCASE_VERSION) {
-                            m.anotherKey = map.mapping[c];
+                        if (bound != Operation.DO_LOWERCASE_VERSION) {
+                            m.anotherKey = bound;
                         }
-                        map.mapping[c] = m;
+                        map.put(c, m);
+                        bound = m;
                     }
-                    map = (KeyMap) map.mapping[c];
+                    map = map.own(c);
                 } else {
                     if (function == null) {
                         function = NULL_FUNCTION;
                     }
-                    if (map.mapping[c] instanceof KeyMap) {
+                    if (bound instanceof KeyMap) {
                         map.anotherKey = function;
                     } else {
-                        Object op = map.mapping[c];
+                        Object op = bound;
                         if (onlyIfNotBound == false 
                             || op == null 
                             || op == Operation.DO_LOWERCASE_VERSION 
@@ -132,7 +350,7 @@ public class KeyMap {
                             
                         }
                         
-                        map.mapping[c] = function;
+                        map.put(c, function);
                     }
                 }
             }
@@ -225,8 +443,32 @@ public class KeyMap {
         return (char) (c | 0x80);
     }
     
+    /**
+     * Returns the default maps by name. They share what they bind with those of the
+     * other readers until keys are bound in them.
+     */
     public static Map<String, KeyMap> keyMaps() {
         Map<String, KeyMap> keyMaps = new HashMap<String, KeyMap>();
+
+        KeyMap emacs = new KeyMap(DEFAULTS.get(EMACS));
+        keyMaps.put(EMACS, emacs);
+        keyMaps.put(EMACS_STANDARD, emacs);
+        keyMaps.put(EMACS_CTLX, emacs.getKeyMapForBinding("\u0018"));
+        keyMaps.put(EMACS_META, emacs.getKeyMapForBinding("\u001b"));
+
+        KeyMap viMov = new KeyMap(DEFAULTS.get(VI_MOVE));
+        keyMaps.put(VI_MOVE, viMov);
+        keyMaps.put("vi-command", viMov);
+
+        KeyMap viIns = new KeyMap(DEFAULTS.get(VI_INSERT));
+        keyMaps.put(VI_INSERT, viIns);
+        keyMaps.put("vi", viIns);
+
+        return keyMaps;
+    }
+
+    private static Map<String, KeyMap> defaultKeyMaps() {
+        Map<String, KeyMap> keyMaps = new HashMap<String, KeyMap>();
         
         KeyMap emacs = emacs();
         bindArrowKeys(emacs);
@@ -248,6 +490,81 @@ public class KeyMap {
         return keyMaps;
     }
 
+    private static Map<String, KeyMap> freeze(Map<String, KeyMap> keyMaps) {
+        for (KeyMap map : keyMaps.values()) {
+            map.freeze();
+        }
+        return keyMaps;
+    }
+
+    private void freeze() {
+        if (frozen) {
+            return;
+        }
+        frozen = true;
+        for (Object o : mapping) {
+            if (o instanceof KeyMap) {
+                ((KeyMap) o).freeze();
+            }
+        }
+        if (values != null) {
+            for (Object o : values) {
+                if (o instanceof KeyMap) {
+                    ((KeyMap) o).freeze();
+                }
+            }
+        }
+        if (anotherKey instanceof KeyMap) {
+            ((KeyMap) anotherKey).freeze();
+        }
+    }
+
+    @TestAccessible
+    static Collection<KeyMap> defaults() {
+        return DEFAULTS.values();
+    }
+
+    /**
+     * Counts the slots of the arrays the maps bind keys in, including those of the maps
+     * of longer sequences; if owned, only the arrays which aren't shared with the
+     * default maps.
+     */
+    @TestAccessible
+    static int countSlots(Collection<KeyMap> maps, boolean owned) {
+        int slots = 0;
+        Map<KeyMap, Boolean> seen = new IdentityHashMap<KeyMap, Boolean>();
+        for (KeyMap map : maps) {
+            slots += map.countSlots(owned, seen);
+        }
+        return slots;
+    }
+
+    private int countSlots(boolean owned, Map<KeyMap, Boolean> seen) {
+        if (seen.put(this, Boolean.TRUE) != null) {
+            return 0;
+        }
+        int slots = 0;
+        if (!owned || !frozen && !borrowed) {
+            slots += mapping.length + (keys != null ? keys.length + values.length : 0);
+        }
+        for (Object o : mapping) {
+            if (o instanceof KeyMap) {
+                slots += ((KeyMap) o).countSlots(owned, seen);
+            }
+        }
+        if (values != null) {
+            for (Object o : values) {
+                if (o instanceof KeyMap) {
+                    slots += ((KeyMap) o).countSlots(owned, seen);
+                }
+            }
+        }
+        if (anotherKey instanceof KeyMap) {
+            slots += ((KeyMap) anotherKey).countSlots(owned, seen);
+        }
+        return slots;
+    }
+
     public static KeyMap emacs() {
         Object[] map = new Object[KEYMAP_LENGTH];
         Object[] ctrl = new Object[] {
@@ -286,11 +603,13 @@ public class KeyMap {
                         Operation.UNDO,                     /* Control-_ */
                 };
         System.arraycopy( ctrl, 0, map, 0, ctrl.length );
-        for (int i = 32; i < 256; i++) {
+        for (int i = 32; i < KEYMAP_LENGTH; i++) {
             map[i] = Operation.SELF_INSERT;
         }
         map[DELETE] = Operation.BACKWARD_DELETE_CHAR;
-        return new KeyMap(EMACS, map, false);
+        KeyMap keyMap = new KeyMap(EMACS, map, false);
+        keyMap.otherKeys = Operation.SELF_INSERT;
+        return keyMap;
     }
 
     public static final char CTRL_D = (char) 4;
@@ -405,11 +724,13 @@ public class KeyMap {
                         Operation.UNDO,                     /* Control-_ */
                 };
         System.arraycopy( ctrl, 0, map, 0, ctrl.length );
-        for (int i = 32; i < 256; i++) {
+        for (int i = 32; i < KEYMAP_LENGTH; i++) {
             map[i] = Operation.SELF_INSERT;
         }
         map[DELETE] = Operation.BACKWARD_DELETE_CHAR;
-        return new KeyMap(VI_INSERT, map, false);
+        KeyMap keyMap = new KeyMap(VI_INSERT, map, false);
+        keyMap.otherKeys = Operation.SELF_INSERT;
+        return keyMap;
     }
 
     public static KeyMap viMovement() {
@@ -570,9 +891,6 @@ public class KeyMap {
                         Operation.VI_DELETE                 /* DEL */
                 };
         System.arraycopy( low, 0, map, 0, low.length );
-        for (int i = 128; i < 256; i++) {
-            map[i] = null;
-        }
         return new KeyMap(VI_MOVE, map, false);
     }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.console;
+
+/**
+ * Keys to be read again before any more input, such as a macro being replayed or the
+ * rest of a sequence which turned out to be unbound.
+ * <p/>
+ * Keys are kept as code points, with the next one to read at the end of the array, so
+ * both taking a key and putting a string back in front of the others only moves the end.
+ *
+ * @since 2.13
+ */
+final class PushBackBuffer
+{
+    private int[] keys = new int[16];
+
+    private int size;
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the next key, and takes it out of the buffer.
+     */
+    int pop() {
+        if (size == 0) {
+            throw new IllegalStateException();
+        }
+        return keys[--size];
+    }
+
+    /**
+     * Puts a key back, to be read next.
+     */
+    void push(final int key) {
+        if (size == keys.length) {
+            grow(size + 1);
+        }
+        keys[size++] = key;
+    }
+
+    /**
+     * Puts keys back in front of the others, to be read in the order they are in.
+     */
+    void push(final CharSequence str) {
+        push(str, 0, str.length());
+    }
+
+    /**
+     * Puts part of a string back in front of the others, to be read in order.
+     */
+    void push(final CharSequence str, final int start, final int end) {
+        if (keys.length - size < end - start) {
+            grow(size + end - start);
+        }
+        int i = end;
+        while (i > start) {
+            int key = Character.codePointBefore(str, i);
+            if (Character.charCount(key) == 2 && i - 2 < start) {
+                // the low half of a pair which begins before the part
+                key = str.charAt(i - 1);
+            }
+            keys[size++] = key;
+            i -= Character.charCount(key);
+        }
+    }
+
+    private void grow(final int capacity) {
+        int[] grown = new int[Math.max(capacity, keys.length * 2)];
+        System.arraycopy(keys, 0, grown, 0, size);
+        keys = grown;
+    }
+}
@@ -0,0 +1,814 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.console;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import scala.tools.jline.Terminal;
+import scala.tools.jline.internal.DisplayWidth;
+import scala.tools.jline.internal.Terminfo;
+import scala.tools.jline.internal.Terminfo.Capability;
+
+import static scala.tools.jline.internal.Preconditions.checkNotNull;
+
+/**
+ * Keeps track of what the line being edited looks like on screen, and brings it up to
+ * date with as little output as possible.
+ * <p/>
+ * The last line of the prompt and the buffer are laid out as a run of cells which wraps
+ * at the terminal width. Every frame is compared with the previous one: only the cells
+ * which changed are written, and the cursor skips over the others with the cheapest
+ * motion the terminal offers. Text inserted into or deleted from a single row is shifted
+ * in place when the terminal can do so. The cursor is never left pending at the right
+ * margin, so its position is always known.
+ *
+ * @since 2.13
+ */
+final class ScreenRenderer
+{
+    /**
+     * Cell whose content isn't known, such as the prompt when it has escape sequences.
+     */
+    private static final char UNKNOWN = '\uFFFF';
+
+    /**
+     * The right half of a wide character.
+     */
+    private static final char TAIL = '\uFFFE';
+
+    /**
+     * Cell showing more than one character, such as a surrogate pair or a character
+     * followed by combining marks; the characters are kept on the side.
+     */
+    private static final char CLUSTER = '\uFDD0';
+
+    /**
+     * Longest run of single-cell motions worth considering.
+     */
+    private static final int MAX_REPEAT = 8;
+
+    private final Writer out;
+
+    private final Terminal terminal;
+
+    private final Terminfo caps;
+
+    /**
+     * The cells on screen from the start of the prompt line; the screen is blank after them.
+     */
+    private final StringBuilder cells = new StringBuilder();
+
+    private String[] clusters = new String[0];
+
+    /**
+     * The cells of the last frame drawn; kept between frames and laid out again only from
+     * where the text changed, with the help of the column index.
+     */
+    private final StringBuilder frame = new StringBuilder();
+
+    private String[] frameClusters = new String[0];
+
+    private final ColumnIndex index = new ColumnIndex();
+
+    /**
+     * The prompt the frame was laid out with.
+     */
+    private String framePrompt;
+
+    /**
+     * The first cell which may differ from the frame, other than where the frame changed.
+     */
+    private int dirty;
+
+    private final char[] chunk = new char[256];
+
+    /**
+     * The last line of the prompt on screen, or null if the screen is unknown.
+     */
+    private String prompt;
+
+    private int promptWidth;
+
+    private int width;
+
+    private int cursor;
+
+    /**
+     * Whether the last column was just written, with the cursor possibly still on its row.
+     */
+    private boolean pendingWrap;
+
+    private boolean ansi;
+
+    /*
+     * The motions along a row, looked up once so that choosing one on every move only
+     * compares lengths.
+     */
+    private final String cr;
+
+    private final String cub1;
+
+    private final String cuf1;
+
+    private final ParamLength hpa;
+
+    private final ParamLength cub;
+
+    private final ParamLength cuf;
+
+    ScreenRenderer(final Writer out, final Terminal terminal, final Terminfo caps) {
+        this.out = checkNotNull(out);
+        this.terminal = checkNotNull(terminal);
+        this.caps = checkNotNull(caps);
+        cr = caps.tparm(Capability.CARRIAGE_RETURN);
+        cub1 = caps.tparm(Capability.CURSOR_LEFT);
+        cuf1 = caps.tparm(Capability.CURSOR_RIGHT);
+        hpa = new ParamLength(caps, Capability.COLUMN_ADDRESS);
+        cub = new ParamLength(caps, Capability.PARM_LEFT_CURSOR);
+        cuf = new ParamLength(caps, Capability.PARM_RIGHT_CURSOR);
+    }
+
+    /**
+     * Records that the prompt was just written at the start of a row, followed by the cursor.
+     */
+    void reset(final String prompt, final int promptWidth, final int width) {
+        this.prompt = checkNotNull(prompt);
+        this.promptWidth = promptWidth;
+        this.width = Math.max(width, 1);
+        ansi = terminal.isAnsiSupported();
+        cells.setLength(0);
+        appendPrompt(cells, prompt, promptWidth);
+        cursor = promptWidth;
+        pendingWrap = terminal.hasWeirdWrap() && cursor > 0 && cursor % this.width == 0;
+        dirty = 0;
+    }
+
+    /**
+     * Forgets what is on screen; the next frame is drawn from the start of the current row.
+     */
+    void invalidate() {
+        prompt = null;
+    }
+
+    /**
+     * Clears the prompt line and the text, leaving the cursor at the start of the prompt line
+     * for something else to be printed there. The next frame draws them again from the row
+     * the cursor is then on.
+     */
+    void erase() throws IOException {
+        if (prompt == null) {
+            return;
+        }
+        ansi = terminal.isAnsiSupported();
+        position(0);
+        if (ansi) {
+            out.write(capability(Capability.CLR_EOS));
+        }
+        else {
+            // the rows below can't be reached, only the first one is cleared
+            int len = 0;
+            for (int i = Math.min(cells.length(), width - 1); i > 0; i--) {
+                len = chunk(' ', len);
+            }
+            out.write(chunk, 0, len);
+            out.write('\r');
+        }
+        invalidate();
+    }
+
+    /**
+     * Updates the screen to show the prompt followed by the text.
+     *
+     * @param prompt        the last line of the prompt
+     * @param promptWidth   the number of cells taken by the prompt
+     * @param text          the text to show after the prompt
+     * @param position      where to leave the cursor in the text
+     * @param width         the terminal width
+     */
+    void render(final String prompt, final int promptWidth, final CharSequence text, final int position,
+                final int width) throws IOException
+    {
+        checkNotNull(prompt);
+        checkNotNull(text);
+        ansi = terminal.isAnsiSupported();
+
+        if (this.prompt == null || Math.max(width, 1) != this.width || !prompt.equals(this.prompt)) {
+            redraw(prompt, promptWidth, Math.max(width, 1));
+        }
+
+        int first = Math.min(layout(prompt, promptWidth, text), dirty);
+        dirty = Integer.MAX_VALUE;
+        int common = Math.min(frame.length(), cells.length());
+        while (first < common && same(first)) {
+            first++;
+        }
+        if (first < Math.max(frame.length(), cells.length()) && !shift(first)) {
+            update(first);
+        }
+
+        int target = index.cell(position);
+        moveTo(target);
+        if (pendingWrap) {
+            position(target);
+        }
+    }
+
+    /**
+     * Shows text typed at the end of the line, when the screen is up to date with everything
+     * before it and the cursor is after it: the characters are just written, and the layout
+     * extended, without comparing the frames or asking the terminal for its width. It only
+     * takes plain ASCII which stays on the cursor row; anything else is left to {@link #render}.
+     *
+     * @param prompt    the last line of the prompt
+     * @param text      the text to show after the prompt
+     * @param from      where the appended characters start in the text
+     * @return true if the characters were written, false if nothing was
+     */
+    boolean append(final String prompt, final CharSequence text, final int from) throws IOException {
+        int length = text.length();
+        int num = length - from;
+        if (this.prompt == null || !prompt.equals(this.prompt) || !prompt.equals(framePrompt)
+            || dirty != Integer.MAX_VALUE || pendingWrap || index.length() != from
+            || cursor != frame.length() || cursor % width + num >= width) {
+            return false;
+        }
+        for (int i = from; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 32 || c >= 0x7F) {
+                return false;
+            }
+        }
+        for (int i = cursor; i < cells.length(); i++) {
+            // such as a blank written to move past the right margin
+            if (cells.charAt(i) != ' ') {
+                return false;
+            }
+        }
+
+        int len = 0;
+        for (int i = from; i < length; i++) {
+            char c = text.charAt(i);
+            index.append(c);
+            frame.append(c);
+            put(cursor + i - from, c);
+            len = chunk(c, len);
+        }
+        out.write(chunk, 0, len);
+        cursor += num;
+        return true;
+    }
+
+    /**
+     * Moves the cursor back without changing the screen.
+     */
+    void back(final int num) throws IOException {
+        ansi = terminal.isAnsiSupported();
+        position(Math.max(cursor - num, 0));
+    }
+
+    /**
+     * Records that the terminal echoed characters at the cursor.
+     */
+    void echoed(final int num) {
+        dirty = Math.min(dirty, cursor);
+        for (int i = 0; i < num; i++) {
+            put(cursor++, UNKNOWN);
+        }
+        pendingWrap = terminal.hasWeirdWrap() && num > 0 && cursor % width == 0;
+    }
+
+    /**
+     * Goes back to the start of the prompt line and writes the prompt again. The rest of the
+     * line is cleared as well, unless only the prompt changed.
+     */
+    private void redraw(final String prompt, final int promptWidth, final int width) throws IOException {
+        boolean clear = this.prompt == null || width != this.width;
+        if (this.prompt != null) {
+            // rows are counted at the new width, as most terminals reflow on resize
+            this.width = width;
+            position(0);
+        }
+        else {
+            this.width = width;
+            out.write('\r');
+            cells.setLength(0);
+            cursor = 0;
+            pendingWrap = false;
+        }
+        if (clear && ansi) {
+            out.write(capability(Capability.CLR_EOS));
+            cells.setLength(0);
+        }
+        out.write(prompt);
+        this.prompt = prompt;
+        this.promptWidth = promptWidth;
+
+        StringBuilder str = new StringBuilder(promptWidth);
+        appendPrompt(str, prompt, promptWidth);
+        for (int i = 0; i < promptWidth; i++) {
+            put(i, str.charAt(i));
+        }
+        cursor = promptWidth;
+        pendingWrap = terminal.hasWeirdWrap() && cursor > 0 && cursor % width == 0;
+        dirty = 0;
+    }
+
+    /**
+     * Lays out the frame for the text, from the first character which changed.
+     *
+     * @return the first cell of the frame which changed
+     */
+    private int layout(final String prompt, final int promptWidth, final CharSequence text) {
+        if (!prompt.equals(framePrompt)) {
+            framePrompt = prompt;
+            frame.setLength(0);
+            appendPrompt(frame, prompt, promptWidth);
+            index.invalidate();
+        }
+
+        int first = index.update(text, promptWidth, width);
+        int from = first == 0 ? promptWidth : index.end(first - 1);
+        frame.setLength(from);
+
+        int length = text.length();
+        int i = first;
+        while (i < length) {
+            int cell = index.cell(i);
+            int j = i + 1;
+            while (j < length && index.cell(j) == cell) {
+                j++;
+            }
+            while (frame.length() < cell) {
+                // left blank by a wide character moved to the next row
+                frame.append(' ');
+            }
+
+            char c = text.charAt(i);
+            if (j == i + 1 && c != UNKNOWN && c != TAIL && c != CLUSTER) {
+                frame.append(c);
+            }
+            else {
+                frameClusters = ensureCapacity(frameClusters, cell + 1);
+                String str = text.subSequence(i, j).toString();
+                // a combining mark at the start has nothing to combine with
+                frameClusters[cell] = index.end(i) - cell == 1 && DisplayWidth.wcwidth(str.codePointAt(0)) == 0
+                    && !Character.isISOControl(str.codePointAt(0)) ? " " + str : str;
+                frame.append(CLUSTER);
+            }
+            if (index.end(i) - cell == 2) {
+                frame.append(TAIL);
+            }
+            i = j;
+        }
+        return from;
+    }
+
+    /**
+     * Writes the cells which differ from the screen, then erases what is left after them.
+     */
+    private void update(final int first) throws IOException {
+        int length = frame.length();
+        int i = first;
+        while (i < length) {
+            int j = i;
+            if (same(i)) {
+                while (j < length && same(j)) {
+                    j++;
+                }
+                // the cursor moves past these by whatever is cheaper when the next change is written
+            }
+            else {
+                while (j < length && !same(j)) {
+                    j++;
+                }
+                // a wide character is written as a whole
+                if (frame.charAt(i) == TAIL && i > 0) {
+                    i--;
+                }
+                while (j < length && frame.charAt(j) == TAIL) {
+                    j++;
+                }
+                moveTo(i);
+                write(i, j);
+            }
+            i = j;
+        }
+
+        if (cells.length() > length) {
+            if (ansi) {
+                position(length);
+                out.write(capability(Capability.CLR_EOS));
+            }
+            else {
+                moveTo(length);
+                int len = 0;
+                for (int k = length; k < cells.length(); k++) {
+                    len = chunk(' ', len);
+                    cursor++;
+                }
+                out.write(chunk, 0, len);
+                pendingWrap = terminal.hasWeirdWrap() && cursor % width == 0;
+            }
+            cells.setLength(length);
+        }
+    }
+
+    /**
+     * Inserts or deletes characters in place when the change is confined to one row.
+     *
+     * @return false if the change has to be written out instead
+     */
+    private boolean shift(final int first) throws IOException {
+        int length = frame.length();
+        int old = cells.length();
+        if (!ansi || length == old || first / width != (Math.max(length, old) - 1) / width) {
+            return false;
+        }
+
+        int num = Math.abs(length - old);
+        if (length > old) {
+            if (first >= old) {
+                // appended, nothing to move
+                return false;
+            }
+            if (isTail(frame, first) || isTail(frame, first + num) || isTail(cells, first)) {
+                return false;
+            }
+            String insert = cheapest(caps.tparm(Capability.PARM_ICH, num), repeat(Capability.INSERT_CHARACTER, num));
+            if (insert == null || insert.length() >= old - first || !regionMatches(first + num, first, old - first)) {
+                return false;
+            }
+            position(first);
+            out.write(insert);
+            cells.insert(first, frame, first, first + num);
+            clusters = ensureCapacity(clusters, length);
+            System.arraycopy(clusters, first, clusters, first + num, old - first);
+            write(first, first + num);
+        }
+        else {
+            if (isTail(cells, first) || isTail(cells, first + num) || isTail(frame, first)) {
+                return false;
+            }
+            String delete = cheapest(caps.tparm(Capability.PARM_DCH, num), repeat(Capability.DELETE_CHARACTER, num));
+            if (delete == null || delete.length() >= length - first + capability(Capability.CLR_EOS).length()
+                || !regionMatches(first, first + num, length - first))
+            {
+                return false;
+            }
+            position(first);
+            out.write(delete);
+            cells.delete(first, first + num);
+            clusters = ensureCapacity(clusters, old);
+            System.arraycopy(clusters, first + num, clusters, first, old - first - num);
+        }
+        return true;
+    }
+
+    //
+    // Output
+    //
+
+    /**
+     * Writes cells of the frame at the cursor.
+     */
+    private void write(final int from, final int to) throws IOException {
+        clusters = ensureCapacity(clusters, to);
+        int len = 0;
+        for (int i = from; i < to; i++) {
+            char c = frame.charAt(i);
+            if (c == CLUSTER) {
+                String str = frameClusters[i];
+                for (int k = 0; k < str.length(); k++) {
+                    len = chunk(str.charAt(k), len);
+                }
+                clusters[cursor] = str;
+            }
+            else if (c != TAIL) {
+                len = chunk(c, len);
+            }
+            put(cursor++, c);
+        }
+        out.write(chunk, 0, len);
+        pendingWrap = terminal.hasWeirdWrap() && to > from && cursor % width == 0;
+    }
+
+    /**
+     * Writes the cells on screen again from the cursor up to the target; cells which
+     * aren't known are blanked.
+     */
+    private void reprint(final int target) throws IOException {
+        int len = 0;
+        while (cursor < target) {
+            char c = cursor < cells.length() ? cells.charAt(cursor) : ' ';
+            if (c == UNKNOWN || c == TAIL) {
+                c = ' ';
+            }
+            if (c == CLUSTER) {
+                String str = clusters[cursor];
+                for (int k = 0; k < str.length(); k++) {
+                    len = chunk(str.charAt(k), len);
+                }
+            }
+            else {
+                len = chunk(c, len);
+                put(cursor, c);
+            }
+            cursor++;
+            if (cursor < cells.length() && cells.charAt(cursor) == TAIL) {
+                cursor++;
+            }
+        }
+        out.write(chunk, 0, len);
+        pendingWrap = terminal.hasWeirdWrap() && cursor % width == 0;
+    }
+
+    /**
+     * Adds a character to the chunk to be written, writing the chunk out first when it is full.
+     *
+     * @return the new length of the chunk
+     */
+    private int chunk(final char c, int len) throws IOException {
+        if (len == chunk.length) {
+            out.write(chunk, 0, len);
+            len = 0;
+        }
+        chunk[len] = c;
+        return len + 1;
+    }
+
+    /**
+     * Moves the cursor, unless it is there already; a pending wrap is left for the next write.
+     */
+    private void moveTo(final int target) throws IOException {
+        if (target != cursor) {
+            position(target);
+        }
+    }
+
+    /**
+     * Moves the cursor to exactly the target cell.
+     */
+    private void position(final int target) throws IOException {
+        while (pendingWrap) {
+            // write the first cell of the next row again, so the terminal wraps
+            reprint(cursor + 1);
+        }
+        if (target == cursor) {
+            return;
+        }
+
+        String motion = motion(cursor, target);
+        if (motion == null || (isReprintable(target) && target - cursor <= motion.length())) {
+            // without ansi, the text after the cursor can only be written out again
+            reprint(target);
+        }
+        else {
+            out.write(motion);
+            cursor = target;
+        }
+    }
+
+    /**
+     * Returns whether moving right to the target can be done by writing the same cells again.
+     */
+    private boolean isReprintable(final int target) {
+        if (target <= cursor || target > cells.length() || (ansi && target / width != cursor / width)) {
+            return false;
+        }
+        for (int i = cursor; i < target; i++) {
+            if (cells.charAt(i) == UNKNOWN) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the cheapest cursor motion between two cells, or null to move right by writing.
+     */
+    private String motion(final int from, final int to) {
+        if (!ansi) {
+            if (to > from) {
+                return null;
+            }
+            if (to % width == 0 && to / width == from / width) {
+                return "\r";
+            }
+            StringBuilder str = new StringBuilder(from - to);
+            for (int i = to; i < from; i++) {
+                str.append('\b');
+            }
+            return str.toString();
+        }
+
+        String vertical = "";
+        int rows = to / width - from / width;
+        if (rows < 0) {
+            vertical = cheapest(caps.tparm(Capability.PARM_UP_CURSOR, -rows), repeat(Capability.CURSOR_UP, -rows));
+            if (vertical == null) {
+                vertical = capability(Capability.PARM_UP_CURSOR, -rows);
+            }
+        }
+        else if (rows > 0) {
+            // cud1 is often a newline, which may also return the carriage
+            vertical = capability(Capability.PARM_DOWN_CURSOR, rows);
+        }
+        return vertical + horizontal(from % width, to % width);
+    }
+
+    private String horizontal(final int from, final int to) {
+        if (from == to) {
+            return "";
+        }
+        if (to == 0 && cr != null) {
+            return cr;
+        }
+        int distance = Math.abs(to - from);
+        ParamLength relative = to < from ? cub : cuf;
+        String single = to < from ? cub1 : cuf1;
+
+        // the first of the shortest, in the order: hpa, cr and cuf, cub or cuf, repeated cub1 or cuf1
+        int best = 0;
+        int length = hpa.of(to);
+        if (cr != null && cr.length() + cuf.of(to) < length) {
+            best = 1;
+            length = cr.length() + cuf.of(to);
+        }
+        if (relative.of(distance) < length) {
+            best = 2;
+            length = relative.of(distance);
+        }
+        if (single != null && distance <= MAX_REPEAT && single.length() * distance < length) {
+            best = 3;
+            length = single.length() * distance;
+        }
+        if (length >= ParamLength.MISSING) {
+            return capability(Capability.COLUMN_ADDRESS, to);
+        }
+        switch (best) {
+            case 0:
+                return caps.tparm(Capability.COLUMN_ADDRESS, to);
+            case 1:
+                return cr + caps.tparm(Capability.PARM_RIGHT_CURSOR, to);
+            case 2:
+                return caps.tparm(to < from ? Capability.PARM_LEFT_CURSOR : Capability.PARM_RIGHT_CURSOR, distance);
+            default:
+                return repeat(single, distance);
+        }
+    }
+
+    /**
+     * The length of a capability taking a number, without formatting it: its fixed part
+     * plus the decimal digits of the number, which may count from one.
+     */
+    private static final class ParamLength
+    {
+        static final int MISSING = Integer.MAX_VALUE / 2;
+
+        private final int fixed;
+
+        private final int increment;
+
+        ParamLength(final Terminfo caps, final Capability cap) {
+            String zero = caps.tparm(cap, 0);
+            String nine = caps.tparm(cap, 9);
+            if (zero == null || nine == null) {
+                fixed = MISSING;
+                increment = 0;
+            }
+            else {
+                fixed = zero.length() - 1;
+                increment = nine.length() - zero.length();
+            }
+        }
+
+        int of(final int num) {
+            if (fixed == MISSING) {
+                return MISSING;
+            }
+            int digits = 1;
+            for (int n = num + increment; n >= 10; n /= 10) {
+                digits++;
+            }
+            return fixed + digits;
+        }
+    }
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Returns whether a cell of the frame is on screen already.
+     */
+    private boolean same(final int i) {
+        return i < cells.length() && sameCell(i, i);
+    }
+
+    private boolean sameCell(final int i, final int cell) {
+        char c = frame.charAt(i);
+        return c == cells.charAt(cell) && (c != CLUSTER || frameClusters[i].equals(clusters[cell]));
+    }
+
+    private boolean regionMatches(final int from, final int cell, final int len) {
+        for (int i = 0; i < len; i++) {
+            if (!sameCell(from + i, cell + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTail(final CharSequence str, final int i) {
+        return i < str.length() && str.charAt(i) == TAIL;
+    }
+
+    private void put(final int i, final char c) {
+        while (cells.length() < i) {
+            cells.append(' ');
+        }
+        if (i == cells.length()) {
+            cells.append(c);
+        }
+        else {
+            cells.setCharAt(i, c);
+        }
+    }
+
+    private static String[] ensureCapacity(final String[] array, final int length) {
+        if (array.length >= length) {
+            return array;
+        }
+        String[] grown = new String[Math.max(length, array.length * 2)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private String capability(final Capability cap, final int... params) {
+        String str = caps.tparm(cap, params);
+        return str != null ? str : Terminfo.ANSI.tparm(cap, params);
+    }
+
+    /**
+     * Returns a parameterless capability repeated, for short distances.
+     */
+    private String repeat(final Capability cap, final int num) {
+        String str = caps.tparm(cap);
+        if (str == null || num > MAX_REPEAT) {
+            return null;
+        }
+        return repeat(str, num);
+    }
+
+    private static String repeat(final String str, final int num) {
+        StringBuilder buff = new StringBuilder(str.length() * num);
+        for (int i = 0; i < num; i++) {
+            buff.append(str);
+        }
+        return buff.toString();
+    }
+
+    private static String cheapest(final String... candidates) {
+        String best = null;
+        for (String str : candidates) {
+            if (str != null && (best == null || str.length() < best.length())) {
+                best = str;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns whether each character of the prompt takes one cell.
+     */
+    private static boolean isPlain(final String prompt, final int width) {
+        if (prompt.length() != width) {
+            return false;
+        }
+        for (int i = 0; i < prompt.length(); i++) {
+            char c = prompt.charAt(i);
+            if (c < ' ' || (c >= 127 && c < 160)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void appendPrompt(final StringBuilder buff, final String prompt, final int width) {
+        if (isPlain(prompt, width)) {
+            buff.append(prompt);
+        }
+        else {
+            for (int i = 0; i < width; i++) {
+                buff.append(UNKNOWN);
+            }
+        }
+    }
+}
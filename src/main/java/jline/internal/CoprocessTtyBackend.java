@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static scala.tools.jline.internal.Preconditions.checkNotNull;
+
+/**
+ * {@link TtyBackend} which keeps a single shell running and pipes <tt>stty</tt>
+ * commands to it, so a mode switch costs a pipe round-trip rather than a fork of
+ * <tt>sh</tt> and <tt>stty</tt>. Meant for environments where the natives of
+ * {@link TermiosTtyBackend} can't be loaded.
+ * <p/>
+ * The output of each command is terminated by a marker line. If the shell dies or
+ * doesn't answer in time it is killed and {@link ExecTtyBackend} takes over.
+ *
+ * @since 2.13
+ */
+public final class CoprocessTtyBackend
+    implements TtyBackend
+{
+    /**
+     * Queued when the shell goes away; compared by identity.
+     */
+    private static final String DEAD = new String("<dead>");
+
+    private final String shCommand;
+
+    private final String sttyCommand;
+
+    private final String tty;
+
+    private final long timeout;
+
+    private final String marker = "JLINE_STTY_" + Long.toHexString(System.nanoTime());
+
+    private Process process;
+
+    /**
+     * The answers of the running shell. Each shell gets a queue of its own, so that what
+     * a shell which was stopped still sends can't be taken for an answer of the next.
+     */
+    private BlockingQueue<String> responses;
+
+    private Writer commands;
+
+    private TtyBackend fallback;
+
+    public CoprocessTtyBackend() {
+        this(Configuration.getString(TerminalLineSettings.JLINE_SH, TerminalLineSettings.DEFAULT_SH),
+            Configuration.getString(TerminalLineSettings.JLINE_STTY, TerminalLineSettings.DEFAULT_STTY),
+            "/dev/tty",
+            Configuration.getLong(TerminalLineSettings.JLINE_STTY_TIMEOUT, TerminalLineSettings.DEFAULT_STTY_TIMEOUT));
+    }
+
+    @TestAccessible
+    CoprocessTtyBackend(final String shCommand, final String sttyCommand, final String tty, final long timeout) {
+        this.shCommand = checkNotNull(shCommand);
+        this.sttyCommand = checkNotNull(sttyCommand);
+        this.tty = checkNotNull(tty);
+        this.timeout = timeout;
+    }
+
+    public synchronized String stty(final String args) throws IOException, InterruptedException {
+        checkNotNull(args);
+        if (fallback != null) {
+            return fallback.stty(args);
+        }
+
+        try {
+            if (process == null) {
+                start();
+            }
+            Log.trace("Sending: ", args);
+            commands.write(sttyCommand + " " + args + " < " + tty + " 2>&1; echo " + marker + "\n");
+            commands.flush();
+
+            String result = timeout > 0 ? responses.poll(timeout, TimeUnit.MILLISECONDS) : responses.take();
+            if (result == null) {
+                throw new IOException("No answer within " + timeout + " ms");
+            }
+            if (result == DEAD) {
+                throw new IOException("Shell exited");
+            }
+            Log.trace("Result: ", result);
+            return result;
+        }
+        catch (IOException e) {
+            Log.warn("stty coprocess failed; falling back to forking stty: ", e);
+            close();
+            fallback = new ExecTtyBackend();
+            return fallback.stty(args);
+        }
+    }
+
+    private void start() throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(shCommand);
+        builder.redirectErrorStream(true);
+        process = builder.start();
+        commands = new OutputStreamWriter(process.getOutputStream());
+        final BlockingQueue<String> responses = new LinkedBlockingQueue<String>();
+        this.responses = responses;
+
+        // the shell shares our process group, so keep ctrl-c and friends from killing it
+        commands.write("trap '' INT QUIT TSTP\n");
+        commands.flush();
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        Thread thread = new Thread("JLine stty coprocess reader")
+        {
+            @Override
+            public void run() {
+                StringBuilder buff = new StringBuilder();
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.endsWith(marker)) {
+                            // output without a trailing newline runs into the marker
+                            buff.append(line, 0, line.length() - marker.length());
+                            responses.add(buff.toString());
+                            buff.setLength(0);
+                        }
+                        else {
+                            buff.append(line).append('\n');
+                        }
+                    }
+                }
+                catch (IOException e) {
+                    Log.debug("stty coprocess read failed: ", e);
+                }
+                responses.add(DEAD);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+
+        Log.debug("Started stty coprocess: ", shCommand);
+    }
+
+    /**
+     * Stops the shell; the next request starts a new one.
+     */
+    public synchronized void close() {
+        if (process != null) {
+            try {
+                commands.close();
+            }
+            catch (IOException e) {
+                // Ignore
+            }
+            process.destroy();
+            process = null;
+            responses = null;
+        }
+    }
+
+    @TestAccessible
+    synchronized boolean isFallback() {
+        return fallback != null;
+    }
+
+    @Override
+    public String toString() {
+        return "coprocess[" + shCommand + ": " + sttyCommand + "]";
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+/**
+ * Computes how many terminal cells text takes up. ANSI escape sequences take none,
+ * nor do combining and other zero-width characters, while East Asian wide characters
+ * take two.
+ *
+ * @since 2.13
+ */
+public final class DisplayWidth
+{
+    private static final char ESC = 27;
+
+    private static final char BEL = 7;
+
+    /**
+     * First and last code points of the wide and fullwidth ranges, sorted.
+     */
+    private static final int[] WIDE = {
+        0x1100, 0x115F,     // Hangul Jamo
+        0x2329, 0x232A,
+        0x2E80, 0x303E,     // CJK radicals ... CJK symbols and punctuation
+        0x3041, 0x33FF,     // Hiragana ... CJK compatibility
+        0x3400, 0x4DBF,     // CJK unified ideographs extension A
+        0x4E00, 0x9FFF,     // CJK unified ideographs
+        0xA000, 0xA4CF,     // Yi
+        0xA960, 0xA97F,     // Hangul Jamo extended A
+        0xAC00, 0xD7A3,     // Hangul syllables
+        0xF900, 0xFAFF,     // CJK compatibility ideographs
+        0xFE10, 0xFE19,     // vertical forms
+        0xFE30, 0xFE6F,     // CJK compatibility forms, small form variants
+        0xFF00, 0xFF60,     // fullwidth forms
+        0xFFE0, 0xFFE6,
+        0x1F300, 0x1F64F,   // pictographs, emoticons
+        0x1F900, 0x1F9FF,   // supplemental symbols and pictographs
+        0x20000, 0x2FFFD,   // CJK unified ideographs extension B ...
+        0x30000, 0x3FFFD
+    };
+
+    private DisplayWidth() {
+        // empty
+    }
+
+    /**
+     * Returns the number of cells a character takes up: 0 for control, combining and
+     * other zero-width characters, 2 for wide characters and 1 otherwise.
+     */
+    public static int wcwidth(final int codePoint) {
+        if (codePoint < 0x7F) {
+            return codePoint >= 32 ? 1 : 0;
+        }
+        if (codePoint < 0xA0) {
+            return 0;
+        }
+        if (codePoint < 0x300) {
+            return 1;
+        }
+        if (codePoint == 0x200B || (codePoint >= 0x1160 && codePoint <= 0x11FF)) {
+            // zero width space, Hangul medial vowels and final consonants
+            return 0;
+        }
+        switch (Character.getType(codePoint)) {
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.FORMAT:
+                return 0;
+        }
+        if (codePoint >= WIDE[0] && isWide(codePoint)) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static boolean isWide(final int codePoint) {
+        int low = 0;
+        int high = WIDE.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (codePoint < WIDE[mid * 2]) {
+                high = mid - 1;
+            }
+            else if (codePoint > WIDE[mid * 2 + 1]) {
+                low = mid + 1;
+            }
+            else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of cells the text takes up.
+     */
+    public static int width(final CharSequence str) {
+        return width(str, 0, str.length());
+    }
+
+    /**
+     * Returns the number of cells part of the text takes up, leaving out escape sequences.
+     */
+    public static int width(final CharSequence str, final int from, final int to) {
+        int width = 0;
+        int i = from;
+        while (i < to) {
+            char c = str.charAt(i);
+            if (c == ESC) {
+                i = skipEscape(str, i + 1, to);
+            }
+            else if (c < 0x7F) {
+                // the common case
+                if (c >= 32) {
+                    width++;
+                }
+                i++;
+            }
+            else {
+                int codePoint = Character.codePointAt(str, i);
+                width += wcwidth(codePoint);
+                i += Character.charCount(codePoint);
+            }
+        }
+        return width;
+    }
+
+    /**
+     * Returns the index after the escape sequence starting at the given index, just after the ESC.
+     */
+    private static int skipEscape(final CharSequence str, int i, final int to) {
+        if (i >= to) {
+            return i;
+        }
+        char c = str.charAt(i++);
+        if (c == '[') {
+            // CSI: parameters and intermediates, then a final character
+            while (i < to) {
+                c = str.charAt(i++);
+                if (c >= 0x40 && c <= 0x7E) {
+                    break;
+                }
+            }
+        }
+        else if (c == ']') {
+            // OSC: ends with BEL or ST
+            while (i < to) {
+                c = str.charAt(i++);
+                if (c == BEL) {
+                    break;
+                }
+                if (c == ESC && i < to && str.charAt(i) == '\\') {
+                    i++;
+                    break;
+                }
+            }
+        }
+        else {
+            // intermediates, then a final character, like ESC ( B
+            while (c >= 0x20 && c <= 0x2F && i < to) {
+                c = str.charAt(i++);
+            }
+        }
+        return i;
+    }
+}
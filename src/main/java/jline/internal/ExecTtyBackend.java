@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.io.IOException;
+
+import static scala.tools.jline.internal.Preconditions.checkNotNull;
+
+/**
+ * {@link TtyBackend} which forks <tt>sh -c "stty ... &lt; /dev/tty"</tt> for every request.
+ *
+ * @author <a href="mailto:mwp1@cornell.edu">Marc Prud'hommeaux</a>
+ * @author <a href="mailto:dwkemp@gmail.com">Dale Kemp</a>
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @author <a href="mailto:jbonofre@apache.org">Jean-Baptiste Onofré</a>
+ * @since 2.13
+ */
+public final class ExecTtyBackend
+    implements TtyBackend
+{
+    private final String sttyCommand;
+
+    private final String shCommand;
+
+    private final ProcessRunner runner;
+
+    public ExecTtyBackend() {
+        sttyCommand = Configuration.getString(TerminalLineSettings.JLINE_STTY, TerminalLineSettings.DEFAULT_STTY);
+        shCommand = Configuration.getString(TerminalLineSettings.JLINE_SH, TerminalLineSettings.DEFAULT_SH);
+        long timeout = Configuration.getLong(TerminalLineSettings.JLINE_STTY_TIMEOUT, TerminalLineSettings.DEFAULT_STTY_TIMEOUT);
+        runner = new ProcessRunner(timeout, shCommand, "-c");
+    }
+
+    public String stty(final String args) throws IOException, InterruptedException {
+        checkNotNull(args);
+        return runner.run(String.format("%s %s < /dev/tty", sttyCommand, args));
+    }
+
+    /**
+     * Returns the runner, which keeps the latency statistics of the <tt>stty</tt> calls.
+     */
+    public ProcessRunner getRunner() {
+        return runner;
+    }
+
+    @Override
+    public String toString() {
+        return "exec[" + shCommand + " -c " + sttyCommand + "]";
+    }
+}
@@ -49,6 +49,12 @@ public class InputStreamReader extends Reader {
 
     private boolean endOfInput = false;
 
+    // a character decoded by read() beyond the one it returned
+    private int pending = -1;
+
+    // room for a surrogate pair, reused by read()
+    private final char[] pair = new char[2];
+
     String encoding;
 
     CharsetDecoder decoder;
@@ -194,8 +200,23 @@ public class InputStreamReader extends Reader {
                 throw new IOException("InputStreamReader is closed.");
             }
 
-            char buf[] = new char[4];
-            return read(buf, 0, 4) != -1 ? Character.codePointAt(buf, 0) : -1;
+            if (pending != -1) {
+                int c = pending;
+                pending = -1;
+                return c;
+            }
+
+            // a second character that is not the low half of a pair is kept for the next read
+            char buf[] = pair;
+            int n = read(buf, 0, 2);
+            if (n == -1) {
+                return -1;
+            }
+            if (n == 2 && !(Character.isHighSurrogate(buf[0]) && Character.isLowSurrogate(buf[1]))) {
+                pending = buf[1];
+                return buf[0];
+            }
+            return Character.codePointAt(buf, 0, n);
         }
     }
 
@@ -235,6 +256,11 @@ public class InputStreamReader extends Reader {
             if (length == 0) {
                 return 0;
             }
+            if (pending != -1) {
+                buf[offset] = (char) pending;
+                pending = -1;
+                return 1;
+            }
 
             CharBuffer out = CharBuffer.wrap(buf, offset, length);
             CoderResult result = CoderResult.UNDERFLOW;
@@ -329,7 +355,7 @@ public class InputStreamReader extends Reader {
                 throw new IOException("InputStreamReader is closed.");
             }
             try {
-                return bytes.hasRemaining() || in.available() > 0;
+                return pending != -1 || bytes.hasRemaining() || in.available() > 0;
             } catch (IOException e) {
                 return false;
             }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes output through to the terminal, counting the writes and flushes that reach it.
+ * Each of them is usually a system call, so the counts show how well output is coalesced.
+ *
+ * @since 2.13
+ */
+public class MeteredOutputStream
+    extends FilterOutputStream
+{
+    private long writes;
+
+    private long flushes;
+
+    private long bytes;
+
+    public MeteredOutputStream(final OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        writes++;
+        bytes++;
+        out.write(b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        writes++;
+        bytes += len;
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushes++;
+        out.flush();
+    }
+
+    public long getWrites() {
+        return writes;
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Starts counting again from zero.
+     */
+    public void reset() {
+        writes = 0;
+        flushes = 0;
+        bytes = 0;
+    }
+}
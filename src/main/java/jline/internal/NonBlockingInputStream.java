@@ -16,8 +16,16 @@ import java.io.InputStream;
  * is non-blocking; that is, reads can be performed against it that timeout
  * if no data is seen for a period of time.  This effect is achieved by having
  * a separate thread perform all non-blocking read requests and then
- * waiting on the thread to complete.  
- * 
+ * waiting on the thread to complete.
+ * <p>
+ * The thread only reads when asked to, as the stream isn't drained while
+ * nobody is reading from it, but then it reads whatever is available at once
+ * into a ring buffer. The reading thread publishes what it read by moving
+ * the tail of the ring, and the caller takes bytes by moving its head, so
+ * input which was read already is handed over without any locking; only
+ * waiting for more takes the monitor. Pasted text thus crosses over in a few
+ * large reads rather than one handoff per byte.
+ *
  * <p>VERY IMPORTANT NOTES
  * <ul>
  *   <li> This class is not thread safe. It expects at most one reader.
@@ -31,21 +39,35 @@ public class NonBlockingInputStream
     extends InputStream
     implements Runnable
 {
+    private static final int BUFFER_SIZE = 8192;  // A power of two
+
+    private static final int MASK = BUFFER_SIZE - 1;
+
     private InputStream in;               // The actual input stream
-    private int    ch   = -2;             // Recently read character
-    
+
+    /*
+     * The ring buffer. Bytes from head up to tail are waiting to be read;
+     * head is only moved by the reader, tail only by whoever read from the
+     * actual stream. Both only ever grow, and wrap around together.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private volatile int head = 0;
+    private volatile int tail = 0;
+
     private boolean     threadIsReading      = false;
     private boolean     isShutdown           = false;
+    private boolean     eof                  = false;
     private IOException exception            = null;
     private boolean     nonBlockingEnabled;
-    
+    private boolean     woken                = false;
+
     /**
      * Creates a <code>NonBlockingInputStream</code> out of a normal blocking
      * stream. Note that this call also spawn a separate thread to perform the
      * blocking I/O on behalf of the thread that is using this class. The
      * {@link #shutdown()} method must be called in order to shut this thread down.
      * @param in The input stream to wrap
-     * @param isNonBlockingEnabled If true, then the non-blocking methods 
+     * @param isNonBlockingEnabled If true, then the non-blocking methods
      *   {@link #read(long)} and {@link #peek(long)} will be available and,
      *   more importantly, the thread will be started to provide support for the
      *   feature.  If false, then this class acts as a clean-passthru for the
@@ -54,7 +76,7 @@ public class NonBlockingInputStream
     public NonBlockingInputStream (InputStream in, boolean isNonBlockingEnabled) {
         this.in                 = in;
         this.nonBlockingEnabled = isNonBlockingEnabled;
-        
+
         if (isNonBlockingEnabled) {
             Thread t = new Thread(this);
             t.setName("NonBlockingInputStreamThread");
@@ -62,31 +84,31 @@ public class NonBlockingInputStream
             t.start();
         }
     }
-    
+
     /**
      * Shuts down the thread that is handling blocking I/O. Note that if the
      * thread is currently blocked waiting for I/O it will not actually
      * shut down until the I/O is received.  Shutting down the I/O thread
-     * does not prevent this class from being used, but causes the 
+     * does not prevent this class from being used, but causes the
      * non-blocking methods to fail if called and causes {@link #isNonBlockingEnabled()}
      * to return false.
      */
     public synchronized void shutdown() {
         if (!isShutdown && nonBlockingEnabled) {
             isShutdown = true;
-            notify();
+            notifyAll();
         }
     }
-    
+
     /**
      * Non-blocking is considered enabled if the feature is enabled and the
-     * I/O thread has not been shut down. 
+     * I/O thread has not been shut down.
      * @return true if non-blocking mode is enabled.
      */
     public boolean isNonBlockingEnabled() {
         return nonBlockingEnabled && !isShutdown;
     }
-    
+
     @Override
     public void close() throws IOException {
         /*
@@ -99,18 +121,62 @@ public class NonBlockingInputStream
 
     @Override
     public int read() throws IOException {
-        if (nonBlockingEnabled)
-            return read(0L, false);
-        return in.read ();
+        if (!nonBlockingEnabled)
+            return in.read();
+
+        /*
+         * Input read already is taken without locking.
+         */
+        int h = head;
+        if (h != tail) {
+            int c = buffer[h & MASK] & 0xff;
+            head = h + 1;
+            return c;
+        }
+        return read(0L, false);
+    }
+
+    /**
+     * Counts the bytes read ahead, and what the wrapped stream reports while
+     * the I/O thread isn't blocked reading from it.
+     */
+    @Override
+    public int available() throws IOException {
+        if (!nonBlockingEnabled)
+            return in.available();
+
+        int avail = tail - head;
+        if (avail > 0) {
+            return avail;
+        }
+        synchronized (this) {
+            avail = tail - head;
+            if (!threadIsReading) {
+                avail += in.available();
+            }
+            return avail;
+        }
+    }
+
+    /**
+     * Makes a {@link #peek(long)} waiting forever return -2 as if it timed out,
+     * or the next one if none is waiting. Other reads aren't affected. It may
+     * be called from any thread.
+     * @since 2.13
+     */
+    public synchronized void wakeUp() {
+        woken = true;
+        notifyAll();
     }
-    
+
     /**
      * Peeks to see if there is a byte waiting in the input stream without
      * actually consuming the byte.
-     * 
+     *
      * @param timeout The amount of time to wait, 0 == forever
      * @return -1 on eof, -2 if the timeout expired with no available input
-     *   or the character that was read (without consuming it).
+     *   or {@link #wakeUp()} was called, or the character that was read
+     *   (without consuming it).
      * @throws IOException
      */
     public int peek(long timeout) throws IOException {
@@ -118,9 +184,13 @@ public class NonBlockingInputStream
             throw new UnsupportedOperationException ("peek() "
                 + "cannot be called as non-blocking operation is disabled");
         }
+        int h = head;
+        if (h != tail) {
+            return buffer[h & MASK] & 0xff;
+        }
         return read(timeout, true);
     }
-    
+
     /**
      * Attempts to read a character from the input stream for a specific
      * period of time.
@@ -134,102 +204,125 @@ public class NonBlockingInputStream
             throw new UnsupportedOperationException ("read() with timeout "
                 + "cannot be called as non-blocking operation is disabled");
         }
+        int h = head;
+        if (h != tail) {
+            int c = buffer[h & MASK] & 0xff;
+            head = h + 1;
+            return c;
+        }
         return read(timeout, false);
     }
-    
+
     /**
      * Attempts to read a character from the input stream for a specific
-     * period of time.
+     * period of time, once none is waiting in the buffer.
      * @param timeout The amount of time to wait for the character
      * @return The character read, -1 if EOF is reached, or -2 if the
      *   read timed out.
      * @throws IOException
      */
     private synchronized int read(long timeout, boolean isPeek) throws IOException {
-        /*
-         * If the thread hit an IOException, we report it.
-         */
-        if (exception != null) {
-            assert ch == -2;
-            IOException toBeThrown = exception;
-            if (!isPeek)
-                exception = null;
-            throw toBeThrown;
-        }
-            
-        /*
-         * If there was a pending character from the thread, then
-         * we send it. If the timeout is 0L or the thread was shut down
-         * then do a local read.
-         */
-        if (ch >= -1) {
-            assert exception == null;
-        }
-        else if ((timeout == 0L || isShutdown) && !threadIsReading) {
-            ch = in.read();
-        }
-        else {
+        boolean isWakeable = isPeek && timeout == 0L;
+        boolean isInfinite = (timeout <= 0L);
+
+        while (true) {
             /*
-             * If the thread isn't reading already, then ask it to do so.
+             * Whatever the thread read before it hit EOF or an error is
+             * handed out first.
              */
-            if (!threadIsReading) {
-                threadIsReading = true;
-                notify();
+            int h = head;
+            if (h != tail) {
+                int c = buffer[h & MASK] & 0xff;
+                if (!isPeek) {
+                    head = h + 1;
+                }
+                return c;
+            }
+
+            if (exception != null) {
+                IOException toBeThrown = exception;
+                if (!isPeek)
+                    exception = null;
+                throw toBeThrown;
             }
-            
-            boolean isInfinite = (timeout <= 0L);
-            
+
+            if (eof) {
+                if (!isPeek)
+                    eof = false;
+                return -1;
+            }
+
+            if (isWakeable && woken) {
+                woken = false;
+                return -2;
+            }
+
             /*
-             * So the thread is currently doing the reading for us. So
-             * now we play the waiting game.
+             * With the thread gone, or about to go, the read is done here,
+             * unless the thread is still busy with the last one.
              */
-            while (isInfinite || timeout > 0L)  {
-                long start = System.currentTimeMillis ();
-                
-                try {
-                    wait(timeout);
-                }
-                catch (InterruptedException e) {
-                    /* IGNORED */
-                }
-                    
-                if (exception != null) {
-                    assert ch == -2;
-                        
-                    IOException toBeThrown = exception;
-                    if (!isPeek)
-                        exception = null;
-                    throw toBeThrown;
-                }
-                
-                if (ch >= -1) {
-                    assert exception == null;
-                    break;
-                }
-                    
-                if (!isInfinite) {
-                    timeout -= System.currentTimeMillis() - start;
-                }
+            if (isShutdown && !threadIsReading) {
+                fill();
+                continue;
+            }
+
+            if (!isInfinite && timeout <= 0L) {
+                return -2;
+            }
+
+            /*
+             * If the thread isn't reading already, then ask it to do so,
+             * and play the waiting game.
+             */
+            if (!threadIsReading) {
+                threadIsReading = true;
+                notifyAll();
+            }
+
+            long start = System.currentTimeMillis ();
+            try {
+                wait(isInfinite ? 0L : timeout);
+            }
+            catch (InterruptedException e) {
+                /* IGNORED */
+            }
+            if (!isInfinite) {
+                timeout -= System.currentTimeMillis() - start;
             }
         }
-        
-        /*
-         * ch is the character that was just read. Either we set it because
-         * a local read was performed or the read thread set it (or failed to
-         * change it).  We will return it's value, but if this was a peek
-         * operation, then we leave it in place.
-         */
-        int ret = ch;
-        if (!isPeek) {
-            ch = -2;
+    }
+
+    /**
+     * Reads whatever the actual stream has, as much as fits, blocking until
+     * there is something. Only called with the buffer empty, by whoever
+     * is the only one reading from the actual stream at the time.
+     */
+    private void fill() {
+        int t = tail;
+        int off = t & MASK;
+        int n;
+        try {
+            n = in.read(buffer, off, BUFFER_SIZE - off);
+        }
+        catch (IOException e) {
+            synchronized (this) {
+                exception = e;
+            }
+            return;
+        }
+        if (n < 0) {
+            synchronized (this) {
+                eof = true;
+            }
+        }
+        else {
+            tail = t + n;
         }
-        return ret;
     }
-    
+
     /**
-     * This version of read() is very specific to jline's purposes, it 
-     * will always always return a single byte at a time, rather than filling
-     * the entire buffer. 
+     * Reads whatever is waiting in the buffer, blocking only while it is
+     * empty, so that a burst of input such as pasted text is taken at once.
      */
     @Override
     public int read (byte[] b, int off, int len) throws IOException {
@@ -241,17 +334,31 @@ public class NonBlockingInputStream
             return 0;
         }
 
-        int c;
-        if (nonBlockingEnabled)
-            c = this.read(0L);
-        else
-            c = in.read();
-        
+        if (!nonBlockingEnabled)
+            return in.read(b, off, len);
+
+        int c = read();
         if (c == -1) {
             return -1;
         }
         b[off] = (byte)c;
-        return 1;
+
+        /*
+         * Then the rest, in up to two chunks as the ring wraps around.
+         */
+        int n = 1;
+        int h = head;
+        int count = Math.min(tail - h, len - n);
+        while (count > 0) {
+            int from = h & MASK;
+            int chunk = Math.min(count, BUFFER_SIZE - from);
+            System.arraycopy(buffer, from, b, off + n, chunk);
+            n += chunk;
+            h += chunk;
+            count -= chunk;
+        }
+        head = h;
+        return n;
     }
 
     //@Override
@@ -259,9 +366,9 @@ public class NonBlockingInputStream
         Log.debug("NonBlockingInputStream start");
         boolean needToShutdown = false;
         boolean needToRead = false;
-        
+
         while (!needToShutdown) {
-            
+
             /*
              * Synchronize to grab variables accessed by both this thread
              * and the accessing thread.
@@ -269,7 +376,7 @@ public class NonBlockingInputStream
             synchronized (this) {
                 needToShutdown = this.isShutdown;
                 needToRead     = this.threadIsReading;
-                
+
                 try {
                     /*
                      * Nothing to do? Then wait.
@@ -282,33 +389,26 @@ public class NonBlockingInputStream
                     /* IGNORED */
                 }
             }
-            
+
             /*
              * We're not shutting down, but we need to read. This cannot
              * happen while we are holding the lock (which we aren't now).
+             * The reader asks only once it took everything, so the buffer
+             * is empty.
              */
             if (!needToShutdown && needToRead) {
-                int          charRead = -2;
-                IOException  failure = null;
-                try {
-                    charRead = in.read();
-                }
-                catch (IOException e) {
-                    failure = e;
-                }
-                
+                fill();
+
                 /*
                  * Re-grab the lock to update the state.
                  */
                 synchronized (this) {
-                    exception       = failure;
-                    ch              = charRead;
                     threadIsReading = false;
-                    notify();
+                    notifyAll();
                 }
             }
         }
-        
+
         Log.debug("NonBlockingInputStream shutdown");
     }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static scala.tools.jline.internal.Preconditions.checkNotNull;
+
+/**
+ * Runs short-lived commands and collects what they print.
+ * <p/>
+ * The command prefix (e.g. <tt>sh -c</tt>) is configured once on a reused
+ * <tt>ProcessBuilder</tt>. Standard output and error are drained at the same time in
+ * bulk, so a child blocked on a full error pipe can't stall the read of its output,
+ * and a child which doesn't finish within the timeout is killed. The latency of every
+ * invocation is recorded, and slow ones are logged.
+ *
+ * @since 2.13
+ */
+public final class ProcessRunner
+{
+    /**
+     * Invocations slower than this are logged at debug level.
+     */
+    private static final long SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final ExecutorService READERS = Executors.newCachedThreadPool(new ThreadFactory()
+    {
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(r, "JLine process reader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final ProcessBuilder builder = new ProcessBuilder();
+
+    private final List<String> prefix;
+
+    private final long timeout;
+
+    private int invocations;
+
+    private long totalNanos;
+
+    private long maxNanos;
+
+    /**
+     * @param timeout   milliseconds to wait for a command; 0 waits forever.
+     * @param prefix    prepended to the arguments of every invocation.
+     */
+    public ProcessRunner(final long timeout, final String... prefix) {
+        this.timeout = timeout;
+        this.prefix = Arrays.asList(checkNotNull(prefix));
+    }
+
+    /**
+     * Runs the command and returns its standard output followed by its standard error.
+     */
+    public synchronized String run(final String... args) throws IOException, InterruptedException {
+        checkNotNull(args);
+
+        List<String> command = new ArrayList<String>(prefix.size() + args.length);
+        command.addAll(prefix);
+        command.addAll(Arrays.asList(args));
+
+        Log.trace("Running: ", command);
+
+        long start = System.nanoTime();
+        Process p = builder.command(command).start();
+        try {
+            p.getOutputStream().close();
+            Future<byte[]> out = READERS.submit(drain(p.getInputStream()));
+            Future<byte[]> err = READERS.submit(drain(p.getErrorStream()));
+
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            try {
+                bout.write(await(out, deadline, command));
+                bout.write(await(err, deadline, command));
+            }
+            catch (TimeoutException e) {
+                // the readers only return once the pipes are closed, so the child goes first
+                kill(p);
+                out.cancel(true);
+                err.cancel(true);
+                throw new IOException("Timed out after " + timeout + " ms: " + command);
+            }
+            p.waitFor();
+
+            String result = bout.toString();
+            Log.trace("Result: ", result);
+            return result;
+        }
+        finally {
+            p.destroy();
+            record(command, System.nanoTime() - start);
+        }
+    }
+
+    private byte[] await(final Future<byte[]> future, final long deadline, final List<String> command)
+        throws IOException, InterruptedException, TimeoutException
+    {
+        try {
+            if (timeout <= 0) {
+                return future.get();
+            }
+            return future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        }
+        catch (ExecutionException e) {
+            throw (IOException) new IOException("Failed to read output of: " + command).initCause(e.getCause());
+        }
+    }
+
+    /**
+     * Destroys the process, which ends the reads blocked on its pipes, and closes its
+     * streams so that no descriptor is left behind for the readers to release.
+     */
+    private static void kill(final Process p) {
+        p.destroy();
+        closeQuietly(p.getInputStream());
+        closeQuietly(p.getErrorStream());
+        closeQuietly(p.getOutputStream());
+    }
+
+    private static void closeQuietly(final Closeable c) {
+        try {
+            c.close();
+        }
+        catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private static Callable<byte[]> drain(final InputStream in) {
+        return new Callable<byte[]>()
+        {
+            public byte[] call() throws IOException {
+                try {
+                    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                    byte[] buf = new byte[4096];
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        bout.write(buf, 0, n);
+                    }
+                    return bout.toByteArray();
+                }
+                finally {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    private void record(final List<String> command, final long nanos) {
+        invocations++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        if (nanos > SLOW_NANOS) {
+            Log.debug("Slow command (", nanos / 1000, " us): ", command);
+        }
+        else {
+            Log.trace("Ran in ", nanos / 1000, " us");
+        }
+    }
+
+    public synchronized int getInvocations() {
+        return invocations;
+    }
+
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return prefix + " (" + invocations + " runs, avg "
+            + (invocations == 0 ? 0 : totalNanos / invocations / 1000) + " us, max " + maxNanos / 1000 + " us)";
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static scala.tools.jline.internal.Preconditions.checkNotNull;
+
+/**
+ * Dispatches POSIX signals (such as <tt>WINCH</tt>) to any number of tasks.
+ * <p/>
+ * Signals are trapped with <tt>sun.misc.Signal</tt>, bound reflectively since it is
+ * not available on every JVM. A single handler is installed per signal and chains to
+ * whatever handler was installed before it. Once the last task is unregistered, the
+ * previous handler is put back, unless another handler replaced ours in the meantime;
+ * ours then stays installed, and only chains.
+ *
+ * @since 2.13
+ */
+public final class Signals
+{
+    private static final Map<String, Trap> traps = new HashMap<String, Trap>();
+
+    private Signals() {
+        // empty
+    }
+
+    /**
+     * Registers a task to run when the named signal is raised. Tasks run on the JVM's
+     * signal dispatch thread and should be short.
+     *
+     * @param name  the signal name without the <tt>SIG</tt> prefix, e.g. <tt>"WINCH"</tt>.
+     * @return true if the signal could be trapped on this JVM and platform.
+     */
+    public static synchronized boolean register(final String name, final Runnable task) {
+        checkNotNull(name);
+        checkNotNull(task);
+
+        Trap trap = traps.get(name);
+        if (trap == null) {
+            trap = install(name);
+            if (trap == null) {
+                return false;
+            }
+            traps.put(name, trap);
+        }
+        trap.tasks.add(task);
+        return true;
+    }
+
+    /**
+     * Unregisters a task, and puts back the handler which was installed before ours
+     * once no task is left for the signal.
+     */
+    public static synchronized void unregister(final String name, final Runnable task) {
+        checkNotNull(name);
+        checkNotNull(task);
+
+        Trap trap = traps.get(name);
+        if (trap != null && trap.tasks.remove(task) && trap.tasks.isEmpty() && trap.uninstall()) {
+            traps.remove(name);
+        }
+    }
+
+    /**
+     * Returns true while a handler of ours is installed for the named signal.
+     */
+    @TestAccessible
+    static synchronized boolean isTrapped(final String name) {
+        return traps.containsKey(name);
+    }
+
+    /**
+     * Our handler for one signal, and the one it replaced.
+     */
+    private static final class Trap
+    {
+        final List<Runnable> tasks = new CopyOnWriteArrayList<Runnable>();
+
+        final String name;
+
+        Method handle;
+
+        Object signal;
+
+        Object handler;
+
+        volatile Object previous;
+
+        Trap(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Puts the previous handler back.
+         *
+         * @return false if another handler had replaced ours, which is then left in place.
+         */
+        boolean uninstall() {
+            try {
+                Object current = handle.invoke(null, signal, previous);
+                if (current == handler) {
+                    Log.debug("Restored SIG", name);
+                    return true;
+                }
+                // ours is chained to by whoever replaced it, so it has to stay
+                handle.invoke(null, signal, current);
+                return false;
+            }
+            catch (Throwable e) {
+                Log.debug("Unable to restore SIG", name, ": ", e);
+                return false;
+            }
+        }
+    }
+
+    private static Trap install(final String name) {
+        try {
+            final Class<?> signalType = Class.forName("sun.misc.Signal");
+            final Class<?> handlerType = Class.forName("sun.misc.SignalHandler");
+            final Object dfl = handlerType.getField("SIG_DFL").get(null);
+            final Object ign = handlerType.getField("SIG_IGN").get(null);
+            final Trap trap = new Trap(name);
+            trap.handle = signalType.getMethod("handle", signalType, handlerType);
+            trap.signal = signalType.getConstructor(String.class).newInstance(name);
+
+            trap.handler = Proxy.newProxyInstance(Signals.class.getClassLoader(), new Class<?>[] { handlerType },
+                new InvocationHandler()
+                {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+                            if ("equals".equals(method.getName())) {
+                                return proxy == args[0];
+                            }
+                            if ("hashCode".equals(method.getName())) {
+                                return System.identityHashCode(proxy);
+                            }
+                            return "JLine " + name + " handler";
+                        }
+                        for (Runnable task : trap.tasks) {
+                            try {
+                                task.run();
+                            }
+                            catch (Throwable e) {
+                                Log.warn("Signal task failed", e);
+                            }
+                        }
+                        Object prev = trap.previous;
+                        if (prev != null && prev != dfl && prev != ign) {
+                            method.invoke(prev, args);
+                        }
+                        return null;
+                    }
+                });
+
+            trap.previous = trap.handle.invoke(null, trap.signal, trap.handler);
+            Log.debug("Trapped SIG", name);
+            return trap;
+        }
+        catch (Throwable e) {
+            Log.debug("Unable to trap SIG", name, ": ", e);
+            return null;
+        }
+    }
+}
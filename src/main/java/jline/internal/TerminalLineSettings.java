@@ -8,19 +8,14 @@
  */
 package scala.tools.jline.internal;
 
-import java.io.ByteArrayOutputStream;
-import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.text.MessageFormat;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static scala.tools.jline.internal.Preconditions.checkNotNull;
 
 /**
- * Provides access to terminal line settings via <tt>stty</tt>.
+ * Provides access to terminal line settings via <tt>stty</tt> operands, which are
+ * applied by a {@link TtyBackend}.
  *
  * @author <a href="mailto:mwp1@cornell.edu">Marc Prud'hommeaux</a>
  * @author <a href="mailto:dwkemp@gmail.com">Dale Kemp</a>
@@ -38,20 +33,54 @@ public final class TerminalLineSettings
 
     public static final String DEFAULT_SH = "sh";
 
-    private String sttyCommand;
+    /**
+     * Milliseconds to wait for a forked <tt>stty</tt> before killing it.
+     *
+     * @since 2.13
+     */
+    public static final String JLINE_STTY_TIMEOUT = "jline.stty.timeout";
+
+    public static final long DEFAULT_STTY_TIMEOUT = 5000;
+
+    /**
+     * Selects the {@link TtyBackend}: <tt>auto</tt> (default), <tt>native</tt>, <tt>exec</tt>
+     * or <tt>coprocess</tt>.
+     *
+     * @since 2.13
+     */
+    public static final String JLINE_TTY_BACKEND = "jline.tty.backend";
+
+    public static final String AUTO = "auto";
+
+    public static final String NATIVE = "native";
+
+    public static final String EXEC = "exec";
 
-    private String shCommand;
+    /**
+     * @since 2.13
+     */
+    public static final String COPROCESS = "coprocess";
+
+    private final TtyBackend backend;
 
     private String config;
+    private TtyAttributes attributes = TtyAttributes.EMPTY;
     private String initialConfig;
 
     private long configLastFetched;
 
     public TerminalLineSettings() throws IOException, InterruptedException {
-        sttyCommand = Configuration.getString(JLINE_STTY, DEFAULT_STTY);
-        shCommand = Configuration.getString(JLINE_SH, DEFAULT_SH);
+        this(createBackend());
+    }
+
+    /**
+     * @since 2.13
+     */
+    public TerminalLineSettings(final TtyBackend backend) throws IOException, InterruptedException {
+        this.backend = checkNotNull(backend);
+        Log.debug("Using tty backend: ", backend);
         initialConfig = get("-g").trim();
-        config = get("-a");
+        setConfig(get("-a"));
         configLastFetched = System.currentTimeMillis();
 
         Log.debug("Config: ", config);
@@ -62,14 +91,57 @@ public final class TerminalLineSettings
         }
     }
 
+    /**
+     * Creates the backend selected by {@link #JLINE_TTY_BACKEND}. The native backend is
+     * preferred, but forking <tt>stty</tt> is always available as a fallback. The
+     * <tt>coprocess</tt> backend is only used when asked for.
+     *
+     * @since 2.13
+     */
+    public static TtyBackend createBackend() {
+        String type = Configuration.getString(JLINE_TTY_BACKEND, AUTO).toLowerCase();
+        if (COPROCESS.equals(type)) {
+            return new CoprocessTtyBackend();
+        }
+        if (!EXEC.equals(type)) {
+            TtyBackend backend = TermiosTtyBackend.create();
+            if (backend != null) {
+                return backend;
+            }
+            if (NATIVE.equals(type)) {
+                Log.warn("Native tty backend requested but not available; falling back to stty");
+            }
+        }
+        return new ExecTtyBackend();
+    }
+
+    /**
+     * @since 2.13
+     */
+    public TtyBackend getBackend() {
+        return backend;
+    }
+
     public String getConfig() {
         return config;
     }
 
+    /**
+     * Restores the configuration saved at construction with a single <tt>stty -g</tt> style call.
+     */
     public void restore() throws IOException, InterruptedException {
         set(initialConfig);
     }
 
+    /**
+     * Starts a batch of changes which are sent to the backend in one go by {@link Editor#apply}.
+     *
+     * @since 2.13
+     */
+    public Editor edit() {
+        return new Editor();
+    }
+
     public String get(final String args) throws IOException, InterruptedException {
         return stty(args);
     }
@@ -92,7 +164,7 @@ public final class TerminalLineSettings
         try {
             // tty properties are cached so we don't have to worry too much about getting term width/height
             if (config == null || currentTime - configLastFetched > 1000) {
-                config = get("-a");
+                setConfig(get("-a"));
             }
         } catch (Exception e) {
             if (e instanceof InterruptedException) {
@@ -109,7 +181,32 @@ public final class TerminalLineSettings
             configLastFetched = currentTime;
         }
 
-        return this.getProperty(name, config);
+        return attributes.get(name);
+    }
+
+    /**
+     * Re-reads <tt>stty -a</tt> right away, regardless of the age of the cached configuration.
+     *
+     * @since 2.13
+     */
+    public TtyAttributes refresh() throws IOException, InterruptedException {
+        setConfig(get("-a"));
+        configLastFetched = System.currentTimeMillis();
+        return attributes;
+    }
+
+    /**
+     * Returns the attributes parsed from the cached configuration, without refreshing it.
+     *
+     * @since 2.13
+     */
+    public TtyAttributes getAttributes() {
+        return attributes;
+    }
+
+    private void setConfig(final String config) {
+        this.attributes = TtyAttributes.parse(config);
+        this.config = config;
     }
 
     /**
@@ -122,115 +219,86 @@ public final class TerminalLineSettings
      * @return value of the given property.
      */
     protected static int getProperty(String name, String stty) {
-        // try the first kind of regex
-        Pattern pattern = Pattern.compile(name + "\\s+=\\s+(.*?)[;\\n\\r]");
-        Matcher matcher = pattern.matcher(stty);
-        if (!matcher.find()) {
-            // try a second kind of regex
-            pattern = Pattern.compile(name + "\\s+([^;]*)[;\\n\\r]");
-            matcher = pattern.matcher(stty);
-            if (!matcher.find()) {
-                // try a second try of regex
-                pattern = Pattern.compile("(\\S*)\\s+" + name);
-                matcher = pattern.matcher(stty);
-                if (!matcher.find()) {
-                    return -1;
-                }
-            }
-        }
-        return parseControlChar(matcher.group(1));
-    }
-
-    private static int parseControlChar(String str) {
-        // under
-        if ("<undef>".equals(str)) {
-            return -1;
-        }
-        // octal
-        if (str.charAt(0) == '0') {
-            return Integer.parseInt(str, 8);
-        }
-        // decimal
-        if (str.charAt(0) >= '1' && str.charAt(0) <= '9') {
-            return Integer.parseInt(str, 10);
-        }
-        // control char
-        if (str.charAt(0) == '^') {
-            if (str.charAt(1) == '?') {
-                return 127;
-            } else {
-                return str.charAt(1) - 64;
-            }
-        } else if (str.charAt(0) == 'M' && str.charAt(1) == '-') {
-            if (str.charAt(2) == '^') {
-                if (str.charAt(3) == '?') {
-                    return 127 + 128;
-                } else {
-                    return str.charAt(3) - 64 + 128;
-                }
-            } else {
-                return str.charAt(2) + 128;
-            }
-        } else {
-            return str.charAt(0);
-        }
+        return TtyAttributes.parse(stty).get(name);
     }
 
-    private String stty(final String args) throws IOException, InterruptedException {
-        checkNotNull(args);
-        return exec(String.format("%s %s < /dev/tty", sttyCommand, args));
-    }
-
-    private String exec(final String cmd) throws IOException, InterruptedException {
-        checkNotNull(cmd);
-        return exec(shCommand, "-c", cmd);
-    }
+    /**
+     * Collects <tt>stty</tt> operands so they can be applied by a single backend call,
+     * which also avoids leaving the terminal half-configured.
+     * <p/>
+     * Since <tt>stty</tt> rejects the whole command for an unknown control character,
+     * control characters missing from the <tt>stty -a</tt> output (like <tt>dsusp</tt>
+     * on Linux) are left out.
+     *
+     * @since 2.13
+     */
+    public final class Editor
+    {
+        private final StringBuilder operands = new StringBuilder();
 
-    private String exec(final String... cmd) throws IOException, InterruptedException {
-        checkNotNull(cmd);
+        private Editor() {
+            // use edit()
+        }
 
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        /**
+         * Character-at-a-time input, with carriage return kept distinct from newline
+         * and flow control disabled so ctrl-s can be bound.
+         */
+        public Editor raw() {
+            return set("-icanon min 1 -icrnl -inlcr -ixon");
+        }
 
-        Log.trace("Running: ", cmd);
+        public Editor echo(final boolean enabled) {
+            return set(enabled ? "echo" : "-echo");
+        }
 
-        Process p = Runtime.getRuntime().exec(cmd);
+        public Editor undef(final String name) {
+            return control(name, "undef");
+        }
 
-        InputStream in = null;
-        InputStream err = null;
-        OutputStream out = null;
-        try {
-            int c;
-            in = p.getInputStream();
-            while ((c = in.read()) != -1) {
-                bout.write(c);
-            }
-            err = p.getErrorStream();
-            while ((c = err.read()) != -1) {
-                bout.write(c);
+        /**
+         * Sets a control character, e.g. <tt>control("intr", "^C")</tt>.
+         */
+        public Editor control(final String name, final String value) {
+            checkNotNull(name);
+            checkNotNull(value);
+            if (attributes != TtyAttributes.EMPTY && !attributes.getValues().containsKey(name)) {
+                Log.debug("Skipping unsupported control character: ", name);
+                return this;
             }
-            out = p.getOutputStream();
-            p.waitFor();
-        }
-        finally {
-            close(in, out, err);
+            return set(name + " " + value);
         }
 
-        String result = bout.toString();
+        /**
+         * Adds raw <tt>stty</tt> operands.
+         */
+        public Editor set(final String args) {
+            checkNotNull(args);
+            if (operands.length() > 0) {
+                operands.append(' ');
+            }
+            operands.append(args);
+            return this;
+        }
 
-        Log.trace("Result: ", result);
+        /**
+         * Applies the collected operands, if any, with one backend call.
+         */
+        public void apply() throws IOException, InterruptedException {
+            if (operands.length() > 0) {
+                TerminalLineSettings.this.set(operands.toString());
+                operands.setLength(0);
+            }
+        }
 
-        return result;
+        @Override
+        public String toString() {
+            return operands.toString();
+        }
     }
 
-    private static void close(final Closeable... closeables) {
-        for (Closeable c : closeables) {
-            try {
-                c.close();
-            }
-            catch (Exception e) {
-                // Ignore
-            }
-        }
+    private String stty(final String args) throws IOException, InterruptedException {
+        checkNotNull(args);
+        return backend.stty(args);
     }
 }
-
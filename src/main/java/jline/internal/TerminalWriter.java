@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+
+import static scala.tools.jline.internal.Preconditions.checkNotNull;
+
+/**
+ * Encodes the characters written to the terminal straight into a byte buffer, which is
+ * written out when full or flushed.
+ * <p/>
+ * Escape sequences and most text are ASCII, which is copied byte for byte when the charset
+ * encodes it as itself. Other characters are encoded in place for UTF-8, and only go through
+ * a {@link CharsetEncoder} for other charsets. Unlike {@link java.io.OutputStreamWriter},
+ * nothing is allocated per write. Characters which can't be encoded, such as unpaired
+ * surrogates, are replaced the way the charset's encoder does it.
+ *
+ * @since 2.13
+ */
+public class TerminalWriter
+    extends Writer
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Most bytes a character, or a surrogate pair, takes in any charset.
+     */
+    private static final int MAX_BYTES = 16;
+
+    /**
+     * A low surrogate, which is never valid on its own.
+     */
+    private static final char LOW = '\uDC00';
+
+    private final OutputStream out;
+
+    private final CharsetEncoder encoder;
+
+    /**
+     * Whether the charset encodes ASCII as itself, whatever came before it.
+     */
+    private final boolean ascii;
+
+    private final boolean utf8;
+
+    private final byte[] buf = new byte[BUFFER_SIZE];
+
+    private final ByteBuffer bytes = ByteBuffer.wrap(buf);
+
+    private final CharBuffer chars = CharBuffer.allocate(2);
+
+    private int count;
+
+    /**
+     * A high surrogate written last, waiting for the low one; 0 if none.
+     */
+    private char high;
+
+    public TerminalWriter(final OutputStream out, final String encoding) throws UnsupportedEncodingException {
+        this(out, forName(encoding));
+    }
+
+    public TerminalWriter(final OutputStream out, final Charset charset) {
+        this.out = checkNotNull(out);
+        encoder = checkNotNull(charset).newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        utf8 = charset.name().equals("UTF-8");
+        ascii = utf8 || encodesAsciiAsItself(charset) && isStateless(charset);
+    }
+
+    private static Charset forName(final String encoding) throws UnsupportedEncodingException {
+        checkNotNull(encoding);
+        try {
+            return Charset.forName(encoding);
+        }
+        catch (IllegalCharsetNameException e) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+        catch (UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+    }
+
+    private static boolean encodesAsciiAsItself(final Charset charset) {
+        char[] str = new char[128];
+        for (char c = 0; c < str.length; c++) {
+            str[c] = c;
+        }
+        byte[] encoded = new String(str).getBytes(charset);
+        if (encoded.length != str.length) {
+            return false;
+        }
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the charset encodes characters without shifting into another mode,
+     * which ASCII would then have to shift back out of.
+     */
+    private static boolean isStateless(final Charset charset) {
+        CharsetEncoder encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(MAX_BYTES * 8);
+        encoder.encode(CharBuffer.wrap("\u00E9\u0416\u6771\uAC00"), bytes, true);
+        int length = bytes.position();
+        encoder.flush(bytes);
+        return bytes.position() == length;
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        synchronized (lock) {
+            put((char) c);
+        }
+    }
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        checkNotNull(cbuf);
+        if (off < 0 || len < 0 || len > cbuf.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        synchronized (lock) {
+            int i = off;
+            int end = off + len;
+            while (i < end) {
+                if (ascii && high == 0) {
+                    // copy a run of ASCII, as much as fits
+                    int stop = i + Math.min(end - i, buf.length - count);
+                    byte[] b = buf;
+                    int n = count;
+                    while (i < stop && cbuf[i] < 0x80) {
+                        b[n++] = (byte) cbuf[i++];
+                    }
+                    count = n;
+                    if (count == buf.length) {
+                        flushBuffer();
+                    }
+                    if (i == stop) {
+                        continue;
+                    }
+                }
+                put(cbuf[i++]);
+            }
+        }
+    }
+
+    @Override
+    public void write(final String str, final int off, final int len) throws IOException {
+        checkNotNull(str);
+        if (off < 0 || len < 0 || len > str.length() - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        synchronized (lock) {
+            int i = off;
+            int end = off + len;
+            while (i < end) {
+                if (ascii && high == 0) {
+                    int stop = i + Math.min(end - i, buf.length - count);
+                    byte[] b = buf;
+                    int n = count;
+                    char c;
+                    while (i < stop && (c = str.charAt(i)) < 0x80) {
+                        b[n++] = (byte) c;
+                        i++;
+                    }
+                    count = n;
+                    if (count == buf.length) {
+                        flushBuffer();
+                    }
+                    if (i == stop) {
+                        continue;
+                    }
+                }
+                put(str.charAt(i++));
+            }
+        }
+    }
+
+    /**
+     * Copies ASCII to the buffer as it is, when the charset allows, and encodes the rest.
+     */
+    private void put(final char c) throws IOException {
+        if (c < 0x80 && ascii && high == 0) {
+            if (count == buf.length) {
+                flushBuffer();
+            }
+            buf[count++] = (byte) c;
+        }
+        else {
+            encode(c);
+        }
+    }
+
+    /**
+     * Encodes a character which isn't plain ASCII, or follows a high surrogate.
+     */
+    private void encode(final char c) throws IOException {
+        if (buf.length - count < MAX_BYTES) {
+            flushBuffer();
+        }
+        if (high != 0) {
+            char h = high;
+            high = 0;
+            if (Character.isLowSurrogate(c)) {
+                encode(h, c);
+                return;
+            }
+            replace();
+        }
+        if (Character.isHighSurrogate(c)) {
+            high = c;
+        }
+        else if (Character.isLowSurrogate(c)) {
+            replace();
+        }
+        else {
+            encode(c, (char) 0);
+        }
+    }
+
+    /**
+     * Encodes a character, or a surrogate pair.
+     */
+    private void encode(final char c, final char low) {
+        if (utf8) {
+            int codePoint = low != 0 ? Character.toCodePoint(c, low) : c;
+            if (codePoint < 0x80) {
+                buf[count++] = (byte) codePoint;
+            }
+            else if (codePoint < 0x800) {
+                buf[count++] = (byte) (0xC0 | codePoint >> 6);
+                buf[count++] = (byte) (0x80 | codePoint & 0x3F);
+            }
+            else if (codePoint < 0x10000) {
+                buf[count++] = (byte) (0xE0 | codePoint >> 12);
+                buf[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                buf[count++] = (byte) (0x80 | codePoint & 0x3F);
+            }
+            else {
+                buf[count++] = (byte) (0xF0 | codePoint >> 18);
+                buf[count++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                buf[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                buf[count++] = (byte) (0x80 | codePoint & 0x3F);
+            }
+            return;
+        }
+
+        chars.clear();
+        chars.put(c);
+        if (low != 0) {
+            chars.put(low);
+        }
+        chars.flip();
+        bytes.limit(buf.length);
+        bytes.position(count);
+        // whole characters only, so that nothing is left behind in the encoder
+        encoder.encode(chars, bytes, false);
+        count = bytes.position();
+    }
+
+    /**
+     * Writes what the encoder puts in place of an unpaired surrogate.
+     */
+    private void replace() {
+        if (utf8) {
+            buf[count++] = '?';
+        }
+        else {
+            // a lone low surrogate is malformed whatever comes next, and the encoder
+            // replaces it the way it would any other
+            encode(LOW, (char) 0);
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            flushBuffer();
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (high != 0) {
+                high = 0;
+                if (buf.length - count < MAX_BYTES) {
+                    flushBuffer();
+                }
+                replace();
+            }
+            if (!utf8) {
+                // a stateful charset shifts back to its initial mode
+                flushBuffer();
+                chars.clear();
+                chars.flip();
+                bytes.limit(buf.length);
+                bytes.position(count);
+                encoder.encode(chars, bytes, true);
+                encoder.flush(bytes);
+                count = bytes.position();
+            }
+            flushBuffer();
+            out.close();
+        }
+    }
+}
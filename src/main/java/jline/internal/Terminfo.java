@@ -0,0 +1,559 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static scala.tools.jline.internal.Preconditions.checkNotNull;
+
+/**
+ * Capabilities of a terminal type, read from the compiled terminfo database.
+ * <p/>
+ * Entries are parsed once and cached per terminal name. Only the standard
+ * capabilities listed in {@link Capability} are looked up; extended ones are ignored.
+ * {@link #ANSI} holds the sequences JLine used to hard-code, for when no entry is found.
+ *
+ * @since 2.13
+ */
+public final class Terminfo
+{
+    public static enum Kind
+    {
+        BOOLEAN,
+        NUMBER,
+        STRING
+    }
+
+    /**
+     * The standard capabilities used by JLine, with their index in the compiled format.
+     */
+    public static enum Capability
+    {
+        AUTO_RIGHT_MARGIN(Kind.BOOLEAN, 1, "am"),
+        EAT_NEWLINE_GLITCH(Kind.BOOLEAN, 4, "xenl"),
+
+        COLUMNS(Kind.NUMBER, 0, "cols"),
+        LINES(Kind.NUMBER, 2, "lines"),
+
+        BELL(Kind.STRING, 1, "bel"),
+        CARRIAGE_RETURN(Kind.STRING, 2, "cr"),
+        CHANGE_SCROLL_REGION(Kind.STRING, 3, "csr"),
+        CLEAR_SCREEN(Kind.STRING, 5, "clear"),
+        CLR_EOL(Kind.STRING, 6, "el"),
+        CLR_EOS(Kind.STRING, 7, "ed"),
+        COLUMN_ADDRESS(Kind.STRING, 8, "hpa"),
+        CURSOR_ADDRESS(Kind.STRING, 10, "cup"),
+        CURSOR_DOWN(Kind.STRING, 11, "cud1"),
+        CURSOR_LEFT(Kind.STRING, 14, "cub1"),
+        CURSOR_RIGHT(Kind.STRING, 17, "cuf1"),
+        CURSOR_UP(Kind.STRING, 19, "cuu1"),
+        DELETE_CHARACTER(Kind.STRING, 21, "dch1"),
+        ERASE_CHARS(Kind.STRING, 37, "ech"),
+        INSERT_CHARACTER(Kind.STRING, 52, "ich1"),
+        PARM_DCH(Kind.STRING, 105, "dch"),
+        PARM_DOWN_CURSOR(Kind.STRING, 107, "cud"),
+        PARM_ICH(Kind.STRING, 108, "ich"),
+        PARM_LEFT_CURSOR(Kind.STRING, 111, "cub"),
+        PARM_RIGHT_CURSOR(Kind.STRING, 112, "cuf"),
+        PARM_UP_CURSOR(Kind.STRING, 114, "cuu"),
+        SCROLL_FORWARD(Kind.STRING, 129, "ind"),
+        SCROLL_REVERSE(Kind.STRING, 130, "ri"),
+        CLR_BOL(Kind.STRING, 269, "el1");
+
+        private final Kind kind;
+
+        private final int index;
+
+        private final String name;
+
+        private Capability(final Kind kind, final int index, final String name) {
+            this.kind = kind;
+            this.index = index;
+            this.name = name;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Returns the short terminfo name, e.g. <tt>"el"</tt>.
+         */
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * The ANSI sequences understood by every terminal JLine treats as ANSI capable,
+     * including the Windows console through jansi.
+     */
+    public static final Terminfo ANSI;
+
+    static {
+        Map<Capability, Object> caps = new HashMap<Capability, Object>();
+        caps.put(Capability.AUTO_RIGHT_MARGIN, true);
+        caps.put(Capability.BELL, "\007");
+        caps.put(Capability.CARRIAGE_RETURN, "\r");
+        caps.put(Capability.CLEAR_SCREEN, "\033[2J\033[1;1H");
+        caps.put(Capability.CLR_EOL, "\033[K");
+        caps.put(Capability.CLR_EOS, "\033[J");
+        caps.put(Capability.COLUMN_ADDRESS, "\033[%i%p1%dG");
+        caps.put(Capability.CURSOR_UP, "\033[A");
+        caps.put(Capability.PARM_UP_CURSOR, "\033[%p1%dA");
+        caps.put(Capability.PARM_DOWN_CURSOR, "\033[%p1%dB");
+        ANSI = new Terminfo("ansi", caps);
+    }
+
+    private static final String[] DEFAULT_DIRS = {
+        "/etc/terminfo", "/lib/terminfo", "/usr/share/terminfo", "/usr/lib/terminfo", "/usr/share/lib/terminfo"
+    };
+
+    private static final int MAGIC = 0432;
+
+    private static final int MAGIC_32BIT = 01036;
+
+    private static final Map<String, Terminfo> cache = new HashMap<String, Terminfo>();
+
+    private final String names;
+
+    private final boolean[] booleans;
+
+    private final int[] numbers;
+
+    private final String[] strings;
+
+    private Terminfo(final String names, final boolean[] booleans, final int[] numbers, final String[] strings) {
+        this.names = names;
+        this.booleans = booleans;
+        this.numbers = numbers;
+        this.strings = strings;
+    }
+
+    private Terminfo(final String names, final Map<Capability, Object> caps) {
+        this(names, new boolean[Capability.EAT_NEWLINE_GLITCH.index + 1], new int[Capability.LINES.index + 1],
+            new String[Capability.CLR_BOL.index + 1]);
+        Arrays.fill(numbers, -1);
+        for (Map.Entry<Capability, Object> entry : caps.entrySet()) {
+            Capability cap = entry.getKey();
+            switch (cap.kind) {
+                case BOOLEAN:
+                    booleans[cap.index] = (Boolean) entry.getValue();
+                    break;
+                case NUMBER:
+                    numbers[cap.index] = (Integer) entry.getValue();
+                    break;
+                default:
+                    strings[cap.index] = (String) entry.getValue();
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the entry, e.g. <tt>"xterm|xterm terminal emulator"</tt>.
+     */
+    public String getNames() {
+        return names;
+    }
+
+    public boolean getBoolean(final Capability cap) {
+        checkKind(cap, Kind.BOOLEAN);
+        return cap.index < booleans.length && booleans[cap.index];
+    }
+
+    /**
+     * @return the value, or -1 if absent.
+     */
+    public int getNumber(final Capability cap) {
+        checkKind(cap, Kind.NUMBER);
+        return cap.index < numbers.length ? numbers[cap.index] : -1;
+    }
+
+    /**
+     * @return the raw (unparameterized) value, or null if absent.
+     */
+    public String getString(final Capability cap) {
+        checkKind(cap, Kind.STRING);
+        return cap.index < strings.length ? strings[cap.index] : null;
+    }
+
+    public boolean hasString(final Capability cap) {
+        return getString(cap) != null;
+    }
+
+    /**
+     * Returns the capability with its parameters applied, or null if absent.
+     */
+    public String tparm(final Capability cap, final int... params) {
+        String str = getString(cap);
+        return str != null ? tparm(str, params) : null;
+    }
+
+    private static void checkKind(final Capability cap, final Kind kind) {
+        if (checkNotNull(cap).kind != kind) {
+            throw new IllegalArgumentException(cap + " is not a " + kind.name().toLowerCase() + " capability");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Terminfo{" + names + "}";
+    }
+
+    //
+    // Loading
+    //
+
+    /**
+     * Returns the entry for a terminal name, looked up the way ncurses does and cached.
+     *
+     * @return null if there is no usable entry.
+     */
+    public static Terminfo forTerm(final String term) {
+        if (term == null || term.length() == 0) {
+            return null;
+        }
+        synchronized (cache) {
+            if (cache.containsKey(term)) {
+                return cache.get(term);
+            }
+            Terminfo terminfo = load(term, searchPath());
+            Log.debug("Terminfo for ", term, ": ", terminfo);
+            cache.put(term, terminfo);
+            return terminfo;
+        }
+    }
+
+    private static List<File> searchPath() {
+        List<File> dirs = new ArrayList<File>();
+        String env = System.getenv("TERMINFO");
+        if (env != null) {
+            dirs.add(new File(env));
+        }
+        dirs.add(new File(Configuration.getUserHome(), ".terminfo"));
+        env = System.getenv("TERMINFO_DIRS");
+        if (env != null) {
+            for (String dir : env.split(":")) {
+                dirs.add(new File(dir.length() > 0 ? dir : "/usr/share/terminfo"));
+            }
+        }
+        for (String dir : DEFAULT_DIRS) {
+            dirs.add(new File(dir));
+        }
+        return dirs;
+    }
+
+    @TestAccessible
+    static Terminfo load(final String term, final List<File> dirs) {
+        if (term.indexOf('/') >= 0 || term.startsWith(".")) {
+            return null;
+        }
+        String first = term.substring(0, 1);
+        String hex = Integer.toHexString(term.charAt(0));
+        for (File dir : dirs) {
+            // the hex directories are used on case insensitive file systems, e.g. on Mac OS X
+            for (String sub : new String[] { first, hex }) {
+                File file = new File(new File(dir, sub), term);
+                if (file.isFile()) {
+                    try {
+                        return parse(read(file));
+                    }
+                    catch (Exception e) {
+                        Log.debug("Invalid terminfo entry: ", file, ": ", e);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static byte[] read(final File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Parses an entry in the compiled terminfo format (see <tt>term(5)</tt>).
+     */
+    @TestAccessible
+    static Terminfo parse(final byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        int magic = buf.getShort();
+        if (magic != MAGIC && magic != MAGIC_32BIT) {
+            throw new IOException("Bad terminfo magic: " + Integer.toOctalString(magic));
+        }
+        int nameSize = buf.getShort();
+        int boolCount = buf.getShort();
+        int numCount = buf.getShort();
+        int strCount = buf.getShort();
+        int tableSize = buf.getShort();
+        if (nameSize < 0 || boolCount < 0 || numCount < 0 || strCount < 0 || tableSize < 0) {
+            throw new IOException("Bad terminfo header");
+        }
+
+        String names = latin1(data, buf.position(), nameSize - 1);
+        buf.position(buf.position() + nameSize);
+
+        boolean[] booleans = new boolean[boolCount];
+        for (int i = 0; i < boolCount; i++) {
+            booleans[i] = buf.get() == 1;
+        }
+        if ((buf.position() & 1) != 0) {
+            buf.get();
+        }
+
+        int[] numbers = new int[numCount];
+        for (int i = 0; i < numCount; i++) {
+            int n = magic == MAGIC_32BIT ? buf.getInt() : buf.getShort();
+            numbers[i] = n < 0 ? -1 : n;
+        }
+
+        short[] offsets = new short[strCount];
+        for (int i = 0; i < strCount; i++) {
+            offsets[i] = buf.getShort();
+        }
+        int table = buf.position();
+        if (table + tableSize > data.length) {
+            throw new IOException("Truncated terminfo entry");
+        }
+
+        String[] strings = new String[strCount];
+        for (int i = 0; i < strCount; i++) {
+            int offset = offsets[i];
+            if (offset >= 0 && offset < tableSize) {
+                int end = table + offset;
+                while (end < table + tableSize && data[end] != 0) {
+                    end++;
+                }
+                strings[i] = latin1(data, table + offset, end - table - offset);
+            }
+        }
+
+        return new Terminfo(names, booleans, numbers, strings);
+    }
+
+    private static String latin1(final byte[] data, final int offset, final int length) {
+        char[] chars = new char[Math.max(length, 0)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (data[offset + i] & 0xff);
+        }
+        return new String(chars);
+    }
+
+    //
+    // Parameters
+    //
+
+    /**
+     * Applies parameters to a capability string, like <tt>tparm(3)</tt>. Padding
+     * (<tt>$&lt;5&gt;</tt>) is dropped.
+     */
+    public static String tparm(final String str, final int... params) {
+        checkNotNull(str);
+        StringBuilder out = new StringBuilder();
+        List<Object> stack = new ArrayList<Object>();
+        Object[] vars = new Object[52];
+        int[] p = new int[9];
+        System.arraycopy(params, 0, p, 0, Math.min(params.length, p.length));
+
+        int n = str.length();
+        int i = 0;
+        while (i < n) {
+            char c = str.charAt(i++);
+            if (c == '$' && i < n && str.charAt(i) == '<') {
+                int end = str.indexOf('>', i);
+                if (end > 0) {
+                    i = end + 1;
+                    continue;
+                }
+            }
+            if (c != '%' || i >= n) {
+                out.append(c);
+                continue;
+            }
+            c = str.charAt(i++);
+            switch (c) {
+                case '%':
+                    out.append('%');
+                    break;
+                case 'c':
+                    out.append((char) popInt(stack));
+                    break;
+                case 's':
+                    out.append(pop(stack));
+                    break;
+                case 'p':
+                    stack.add(p[str.charAt(i++) - '1']);
+                    break;
+                case 'P':
+                    vars[var(str.charAt(i++))] = pop(stack);
+                    break;
+                case 'g': {
+                    Object value = vars[var(str.charAt(i++))];
+                    stack.add(value != null ? value : 0);
+                    break;
+                }
+                case '\'':
+                    stack.add((int) str.charAt(i));
+                    i += 2;
+                    break;
+                case '{': {
+                    int end = str.indexOf('}', i);
+                    stack.add(Integer.parseInt(str.substring(i, end)));
+                    i = end + 1;
+                    break;
+                }
+                case 'l':
+                    stack.add(String.valueOf(pop(stack)).length());
+                    break;
+                case 'i':
+                    p[0]++;
+                    p[1]++;
+                    break;
+                case '!':
+                    stack.add(popInt(stack) == 0 ? 1 : 0);
+                    break;
+                case '~':
+                    stack.add(~popInt(stack));
+                    break;
+                case '+': case '-': case '*': case '/': case 'm':
+                case '&': case '|': case '^': case '=': case '>': case '<': case 'A': case 'O': {
+                    int b = popInt(stack);
+                    int a = popInt(stack);
+                    stack.add(binary(c, a, b));
+                    break;
+                }
+                case '?':
+                case ';':
+                    break;
+                case 't':
+                    if (popInt(stack) == 0) {
+                        i = skip(str, i, true);
+                    }
+                    break;
+                case 'e':
+                    // only reached at the end of a taken branch
+                    i = skip(str, i, false);
+                    break;
+                default: {
+                    // printf style: %[[:]flags][width[.precision]][doxXs]
+                    int start = c == ':' ? i : i - 1;
+                    int end = i - 1;
+                    while (end < n && "doxXs".indexOf(str.charAt(end)) < 0) {
+                        end++;
+                    }
+                    if (end == n) {
+                        return out.toString();
+                    }
+                    i = end + 1;
+                    Object value = pop(stack);
+                    if (start == end && str.charAt(end) == 'd') {
+                        out.append(toInt(value));
+                        break;
+                    }
+                    try {
+                        // the digits have to be ASCII whatever the default locale
+                        out.append(String.format(Locale.US, "%" + str.substring(start, i),
+                            str.charAt(end) == 's' ? value : toInt(value)));
+                    }
+                    catch (IllegalFormatException e) {
+                        out.append(value);
+                    }
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static int binary(final char op, final int a, final int b) {
+        switch (op) {
+            case '+': return a + b;
+            case '-': return a - b;
+            case '*': return a * b;
+            case '/': return b != 0 ? a / b : 0;
+            case 'm': return b != 0 ? a % b : 0;
+            case '&': return a & b;
+            case '|': return a | b;
+            case '^': return a ^ b;
+            case '=': return a == b ? 1 : 0;
+            case '>': return a > b ? 1 : 0;
+            case '<': return a < b ? 1 : 0;
+            case 'A': return a != 0 && b != 0 ? 1 : 0;
+            default: return a != 0 || b != 0 ? 1 : 0;
+        }
+    }
+
+    /**
+     * Skips to the matching <tt>%e</tt> (when an else branch is wanted) or <tt>%;</tt>.
+     */
+    private static int skip(final String str, int i, final boolean toElse) {
+        int depth = 0;
+        while (i < str.length() - 1) {
+            if (str.charAt(i) != '%') {
+                i++;
+                continue;
+            }
+            char c = str.charAt(i + 1);
+            i += 2;
+            if (c == '?') {
+                depth++;
+            }
+            else if (c == ';') {
+                if (depth == 0) {
+                    return i;
+                }
+                depth--;
+            }
+            else if (c == 'e' && toElse && depth == 0) {
+                return i;
+            }
+        }
+        return str.length();
+    }
+
+    private static int var(final char name) {
+        return name >= 'a' && name <= 'z' ? name - 'a' : 26 + (name - 'A');
+    }
+
+    private static Object pop(final List<Object> stack) {
+        return stack.isEmpty() ? 0 : stack.remove(stack.size() - 1);
+    }
+
+    private static int popInt(final List<Object> stack) {
+        return toInt(pop(stack));
+    }
+
+    private static int toInt(final Object value) {
+        return value instanceof Integer ? (Integer) value : 0;
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static scala.tools.jline.internal.Preconditions.checkNotNull;
+
+/**
+ * {@link TtyBackend} which interprets <tt>stty</tt> operands itself and applies them
+ * with <tt>tcgetattr(3)</tt>/<tt>tcsetattr(3)</tt> on standard input, without forking.
+ * <p/>
+ * The natives come from jansi's <tt>CLibrary</tt>. The jansi version JLine is built
+ * against does not export them, so they are bound reflectively; when they are missing,
+ * when standard input is not a terminal or when the platform's termios layout is not
+ * known, {@link #create()} returns null and callers fall back to {@link ExecTtyBackend}.
+ *
+ * @since 2.13
+ */
+public final class TermiosTtyBackend
+    implements TtyBackend
+{
+    private static final String CLIBRARY = "org.fusesource.jansi.internal.CLibrary";
+
+    private final Platform platform;
+
+    private final int fd;
+
+    private final int tcsanow;
+
+    private final Class<?> termiosType;
+
+    private final Method tcgetattr;
+
+    private final Method tcsetattr;
+
+    private final Field[] flagFields;
+
+    private final Field ccField;
+
+    private final Class<?> winSizeType;
+
+    private final Method ioctl;
+
+    private final long tiocgwinsz;
+
+    private TermiosTtyBackend(final Platform platform) throws Exception {
+        this.platform = platform;
+
+        Class<?> clib = Class.forName(CLIBRARY);
+        this.termiosType = Class.forName(CLIBRARY + "$Termios");
+        this.fd = clib.getField("STDIN_FILENO").getInt(null);
+        this.tcsanow = clib.getField("TCSANOW").getInt(null);
+        this.tcgetattr = clib.getMethod("tcgetattr", int.class, termiosType);
+        this.tcsetattr = clib.getMethod("tcsetattr", int.class, int.class, termiosType);
+        this.flagFields = new Field[] {
+            termiosType.getField("c_iflag"),
+            termiosType.getField("c_oflag"),
+            termiosType.getField("c_cflag"),
+            termiosType.getField("c_lflag")
+        };
+        this.ccField = termiosType.getField("c_cc");
+
+        Class<?> ws = null;
+        Method ioc = null;
+        long req = 0;
+        try {
+            ws = Class.forName(CLIBRARY + "$WinSize");
+            ioc = clib.getMethod("ioctl", int.class, long.class, ws);
+            req = clib.getField("TIOCGWINSZ").getLong(null);
+        }
+        catch (Exception e) {
+            Log.debug("Window size ioctl unavailable: ", e);
+            ws = null;
+            ioc = null;
+        }
+        this.winSizeType = ws;
+        this.ioctl = ioc;
+        this.tiocgwinsz = req;
+
+        Method isatty = clib.getMethod("isatty", int.class);
+        if (((Integer) isatty.invoke(null, fd)) != 1) {
+            throw new IOException("Standard input is not a terminal");
+        }
+        // Make sure the natives actually work before committing to them
+        fetch();
+    }
+
+    /**
+     * Returns a native backend, or null when it cannot be used in this environment.
+     */
+    public static TermiosTtyBackend create() {
+        Platform platform = Platform.detect(Configuration.getOsName());
+        if (platform == null) {
+            Log.debug("No termios layout known for os: ", Configuration.getOsName());
+            return null;
+        }
+        try {
+            return new TermiosTtyBackend(platform);
+        }
+        catch (Throwable e) {
+            Log.debug("Native termios unavailable: ", e);
+            return null;
+        }
+    }
+
+    public synchronized String stty(final String args) throws IOException {
+        checkNotNull(args);
+        String operands = args.trim();
+
+        Object raw = fetch();
+        Termios t = read(raw);
+
+        if ("-g".equals(operands)) {
+            return t.encode();
+        }
+        if ("-a".equals(operands)) {
+            int[] size = windowSize();
+            return t.describe(size[0], size[1]);
+        }
+
+        if (Termios.isEncoded(operands)) {
+            t.decode(operands);
+        }
+        else {
+            t.apply(operands);
+        }
+        write(t, raw);
+        invoke(tcsetattr, fd, tcsanow, raw);
+        return "";
+    }
+
+    private Object fetch() throws IOException {
+        try {
+            Object raw = termiosType.newInstance();
+            invoke(tcgetattr, fd, raw);
+            return raw;
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw (IOException) new IOException("Failed to allocate termios").initCause(e);
+        }
+    }
+
+    private Termios read(final Object raw) throws IOException {
+        try {
+            Termios t = new Termios(platform, ((byte[]) ccField.get(raw)).length);
+            for (int i = 0; i < flagFields.length; i++) {
+                t.flags[i] = flagFields[i].getLong(raw);
+            }
+            System.arraycopy((byte[]) ccField.get(raw), 0, t.cc, 0, t.cc.length);
+            return t;
+        }
+        catch (IllegalAccessException e) {
+            throw (IOException) new IOException("Failed to read termios").initCause(e);
+        }
+    }
+
+    private void write(final Termios t, final Object raw) throws IOException {
+        try {
+            for (int i = 0; i < flagFields.length; i++) {
+                flagFields[i].setLong(raw, t.flags[i]);
+            }
+            System.arraycopy(t.cc, 0, (byte[]) ccField.get(raw), 0, t.cc.length);
+        }
+        catch (IllegalAccessException e) {
+            throw (IOException) new IOException("Failed to write termios").initCause(e);
+        }
+    }
+
+    /**
+     * Returns <tt>{rows, columns}</tt>, with -1 for anything that could not be determined.
+     */
+    int[] windowSize() {
+        if (ioctl != null) {
+            try {
+                Object ws = winSizeType.newInstance();
+                invoke(ioctl, fd, tiocgwinsz, ws);
+                return new int[] {
+                    winSizeType.getField("ws_row").getShort(ws),
+                    winSizeType.getField("ws_col").getShort(ws)
+                };
+            }
+            catch (Exception e) {
+                Log.debug("Failed to query window size: ", e);
+            }
+        }
+        return new int[] { -1, -1 };
+    }
+
+    private static void invoke(final Method m, final Object... args) throws IOException {
+        int rc;
+        try {
+            rc = (Integer) m.invoke(null, args);
+        }
+        catch (Exception e) {
+            throw (IOException) new IOException("Failed to invoke " + m.getName()).initCause(e);
+        }
+        if (rc != 0) {
+            throw new IOException(m.getName() + " failed: " + rc);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "termios[" + platform + "]";
+    }
+
+    /**
+     * Bit and control character layout of <tt>struct termios</tt> for a family of platforms.
+     */
+    @TestAccessible
+    static final class Platform
+    {
+        static final int IFLAG = 0;
+
+        static final int OFLAG = 1;
+
+        static final int CFLAG = 2;
+
+        static final int LFLAG = 3;
+
+        static final Platform LINUX = new Platform("linux", 0);
+
+        static final Platform BSD = new Platform("bsd", 0xff);
+
+        static {
+            LINUX.flag("ignbrk", IFLAG, 0x1).flag("brkint", IFLAG, 0x2).flag("ignpar", IFLAG, 0x4)
+                .flag("parmrk", IFLAG, 0x8).flag("inpck", IFLAG, 0x10).flag("istrip", IFLAG, 0x20)
+                .flag("inlcr", IFLAG, 0x40).flag("igncr", IFLAG, 0x80).flag("icrnl", IFLAG, 0x100)
+                .flag("iuclc", IFLAG, 0x200).flag("ixon", IFLAG, 0x400).flag("ixany", IFLAG, 0x800)
+                .flag("ixoff", IFLAG, 0x1000).flag("imaxbel", IFLAG, 0x2000).flag("iutf8", IFLAG, 0x4000)
+                .flag("opost", OFLAG, 0x1).flag("onlcr", OFLAG, 0x4).flag("ocrnl", OFLAG, 0x8)
+                .flag("onocr", OFLAG, 0x10).flag("onlret", OFLAG, 0x20)
+                .flag("isig", LFLAG, 0x1).flag("icanon", LFLAG, 0x2).flag("echo", LFLAG, 0x8)
+                .flag("echoe", LFLAG, 0x10).flag("echok", LFLAG, 0x20).flag("echonl", LFLAG, 0x40)
+                .flag("noflsh", LFLAG, 0x80).flag("tostop", LFLAG, 0x100).flag("echoctl", LFLAG, 0x200)
+                .flag("echoprt", LFLAG, 0x400).flag("echoke", LFLAG, 0x800).flag("iexten", LFLAG, 0x8000);
+            LINUX.cc("intr", 0).cc("quit", 1).cc("erase", 2).cc("kill", 3).cc("eof", 4).cc("time", 5)
+                .cc("min", 6).cc("swtch", 7).cc("start", 8).cc("stop", 9).cc("susp", 10).cc("eol", 11)
+                .cc("rprnt", 12).cc("discard", 13).cc("werase", 14).cc("lnext", 15).cc("eol2", 16);
+
+            BSD.flag("ignbrk", IFLAG, 0x1).flag("brkint", IFLAG, 0x2).flag("ignpar", IFLAG, 0x4)
+                .flag("parmrk", IFLAG, 0x8).flag("inpck", IFLAG, 0x10).flag("istrip", IFLAG, 0x20)
+                .flag("inlcr", IFLAG, 0x40).flag("igncr", IFLAG, 0x80).flag("icrnl", IFLAG, 0x100)
+                .flag("ixon", IFLAG, 0x200).flag("ixoff", IFLAG, 0x400).flag("ixany", IFLAG, 0x800)
+                .flag("imaxbel", IFLAG, 0x2000).flag("iutf8", IFLAG, 0x4000)
+                .flag("opost", OFLAG, 0x1).flag("onlcr", OFLAG, 0x2).flag("ocrnl", OFLAG, 0x10)
+                .flag("onocr", OFLAG, 0x20).flag("onlret", OFLAG, 0x40)
+                .flag("echoke", LFLAG, 0x1).flag("echoe", LFLAG, 0x2).flag("echok", LFLAG, 0x4)
+                .flag("echo", LFLAG, 0x8).flag("echonl", LFLAG, 0x10).flag("echoprt", LFLAG, 0x20)
+                .flag("echoctl", LFLAG, 0x40).flag("isig", LFLAG, 0x80).flag("icanon", LFLAG, 0x100)
+                .flag("iexten", LFLAG, 0x400).flag("tostop", LFLAG, 0x400000).flag("noflsh", LFLAG, 0x80000000L);
+            BSD.cc("eof", 0).cc("eol", 1).cc("eol2", 2).cc("erase", 3).cc("werase", 4).cc("kill", 5)
+                .cc("reprint", 6).cc("intr", 8).cc("quit", 9).cc("susp", 10).cc("dsusp", 11).cc("start", 12)
+                .cc("stop", 13).cc("lnext", 14).cc("discard", 15).cc("min", 16).cc("time", 17).cc("status", 18);
+        }
+
+        final String name;
+
+        final int vdisable;
+
+        final Map<String, long[]> flags = new LinkedHashMap<String, long[]>();
+
+        final Map<String, Integer> chars = new LinkedHashMap<String, Integer>();
+
+        private Platform(final String name, final int vdisable) {
+            this.name = name;
+            this.vdisable = vdisable;
+        }
+
+        private Platform flag(final String flag, final int field, final long mask) {
+            flags.put(flag, new long[] { field, mask });
+            return this;
+        }
+
+        private Platform cc(final String cc, final int index) {
+            chars.put(cc, index);
+            return this;
+        }
+
+        static Platform detect(final String os) {
+            if (os.contains("linux")) {
+                return LINUX;
+            }
+            if (os.contains("mac") || os.contains("darwin") || os.contains("bsd")) {
+                return BSD;
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Platform neutral copy of <tt>struct termios</tt> which understands <tt>stty</tt> operands.
+     */
+    @TestAccessible
+    static final class Termios
+    {
+        private static final Pattern ENCODED = Pattern.compile("[0-9a-fA-F]+(:[0-9a-fA-F]+){4,}");
+
+        final Platform platform;
+
+        final long[] flags = new long[4];
+
+        final byte[] cc;
+
+        Termios(final Platform platform, final int nccs) {
+            this.platform = platform;
+            this.cc = new byte[nccs];
+        }
+
+        static boolean isEncoded(final String str) {
+            return ENCODED.matcher(str).matches();
+        }
+
+        /**
+         * Encodes in the same <tt>iflag:oflag:cflag:lflag:cc...</tt> layout as GNU <tt>stty -g</tt>.
+         */
+        String encode() {
+            StringBuilder buff = new StringBuilder();
+            for (int i = 0; i < flags.length; i++) {
+                if (i > 0) {
+                    buff.append(':');
+                }
+                buff.append(Long.toHexString(flags[i]));
+            }
+            for (byte b : cc) {
+                buff.append(':').append(Integer.toHexString(b & 0xff));
+            }
+            return buff.toString();
+        }
+
+        void decode(final String str) {
+            String[] parts = str.split(":");
+            for (int i = 0; i < flags.length; i++) {
+                flags[i] = Long.parseLong(parts[i], 16);
+            }
+            for (int i = flags.length; i < parts.length && i - flags.length < cc.length; i++) {
+                cc[i - flags.length] = (byte) Integer.parseInt(parts[i], 16);
+            }
+        }
+
+        /**
+         * Renders the settings the way Linux <tt>stty -a</tt> does.
+         */
+        String describe(final int rows, final int columns) {
+            StringBuilder buff = new StringBuilder();
+            if (rows >= 0 && columns >= 0) {
+                buff.append("rows ").append(rows).append("; columns ").append(columns).append(";\n");
+            }
+            for (Map.Entry<String, Integer> entry : platform.chars.entrySet()) {
+                String name = entry.getKey();
+                int value = cc[entry.getValue()] & 0xff;
+                buff.append(name).append(" = ");
+                if ("min".equals(name) || "time".equals(name)) {
+                    buff.append(value);
+                }
+                else {
+                    buff.append(formatControlChar(value));
+                }
+                buff.append("; ");
+            }
+            buff.setLength(buff.length() - 1);
+            buff.append('\n');
+            for (Map.Entry<String, long[]> entry : platform.flags.entrySet()) {
+                long[] f = entry.getValue();
+                if ((flags[(int) f[0]] & f[1]) == 0) {
+                    buff.append('-');
+                }
+                buff.append(entry.getKey()).append(' ');
+            }
+            buff.setLength(buff.length() - 1);
+            buff.append('\n');
+            return buff.toString();
+        }
+
+        /**
+         * Applies <tt>stty</tt> operands. Operands which have no termios equivalent on this
+         * platform (<tt>dsusp</tt> on Linux, for example) are skipped, like <tt>stty</tt> does
+         * when a setting is not supported.
+         */
+        void apply(final String operands) {
+            String[] args = operands.trim().split("\\s+");
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.length() == 0) {
+                    continue;
+                }
+                boolean negate = arg.charAt(0) == '-';
+                String name = negate ? arg.substring(1) : arg;
+
+                Integer index = platform.chars.get(name);
+                if (index != null && !negate && i + 1 < args.length) {
+                    String value = args[++i];
+                    if ("min".equals(name) || "time".equals(name)) {
+                        cc[index] = (byte) Integer.parseInt(value);
+                    }
+                    else {
+                        cc[index] = (byte) parseControlChar(value);
+                    }
+                    continue;
+                }
+
+                long[] f = platform.flags.get(name);
+                if (f != null) {
+                    if (negate) {
+                        flags[(int) f[0]] &= ~f[1];
+                    }
+                    else {
+                        flags[(int) f[0]] |= f[1];
+                    }
+                    continue;
+                }
+
+                Log.debug("Ignoring unsupported stty operand on ", platform, ": ", arg);
+                if (!negate && (Platform.LINUX.chars.containsKey(name) || Platform.BSD.chars.containsKey(name))
+                    && i + 1 < args.length) {
+                    // skip the value of a control character we cannot set
+                    i++;
+                }
+            }
+        }
+
+        private int parseControlChar(final String str) {
+            if ("undef".equals(str) || "^-".equals(str)) {
+                return platform.vdisable;
+            }
+            if (str.length() == 2 && str.charAt(0) == '^') {
+                char c = str.charAt(1);
+                return c == '?' ? 127 : Character.toUpperCase(c) & 0x1f;
+            }
+            if (str.length() == 1) {
+                return str.charAt(0);
+            }
+            return Integer.decode(str);
+        }
+
+        private String formatControlChar(final int c) {
+            if (c == platform.vdisable) {
+                return "<undef>";
+            }
+            if (c == 127) {
+                return "^?";
+            }
+            if (c >= 128) {
+                return "M-" + formatControlChar(c - 128);
+            }
+            if (c < 32) {
+                return "^" + (char) (c + 64);
+            }
+            return String.valueOf((char) c);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static scala.tools.jline.internal.Preconditions.checkNotNull;
+
+/**
+ * Immutable snapshot of the terminal attributes reported by <tt>stty -a</tt>.
+ * <p/>
+ * The output is tokenized once and every setting is kept in typed form, so lookups
+ * don't rescan the text. The various layouts of GNU, BSD/macOS, Solaris, AIX and HP-UX
+ * are understood: <tt>name = value</tt>, <tt>name value</tt>, <tt>value name</tt> and
+ * bare (possibly negated) flags, with or without <tt>lflags:</tt>-style headers.
+ *
+ * @since 2.13
+ */
+public final class TtyAttributes
+{
+    /**
+     * Value returned for undefined or unknown settings.
+     */
+    public static final int UNDEFINED = -1;
+
+    public static final TtyAttributes EMPTY = new TtyAttributes(new HashMap<String, Integer>(), new HashMap<String, Boolean>());
+
+    private final Map<String, Integer> values;
+
+    private final Map<String, Boolean> flags;
+
+    private TtyAttributes(final Map<String, Integer> values, final Map<String, Boolean> flags) {
+        this.values = Collections.unmodifiableMap(values);
+        this.flags = Collections.unmodifiableMap(flags);
+    }
+
+    public int getRows() {
+        return get("rows");
+    }
+
+    public int getColumns() {
+        return get("columns");
+    }
+
+    /**
+     * Returns the numeric value of a setting, e.g. <tt>"erase"</tt> or <tt>"min"</tt>,
+     * or {@link #UNDEFINED}.
+     */
+    public int get(final String name) {
+        Integer value = values.get(checkNotNull(name));
+        return value != null ? value : UNDEFINED;
+    }
+
+    /**
+     * Returns the value of a control character such as <tt>"intr"</tt>, or {@link #UNDEFINED}.
+     */
+    public int getControlChar(final String name) {
+        return get(name);
+    }
+
+    /**
+     * Returns true if the flag is listed and not negated.
+     */
+    public boolean isEnabled(final String flag) {
+        return Boolean.TRUE.equals(flags.get(checkNotNull(flag)));
+    }
+
+    /**
+     * Returns whether the flag was listed at all, negated or not.
+     */
+    public boolean hasFlag(final String flag) {
+        return flags.containsKey(checkNotNull(flag));
+    }
+
+    public Map<String, Integer> getValues() {
+        return values;
+    }
+
+    public Map<String, Boolean> getFlags() {
+        return flags;
+    }
+
+    @Override
+    public String toString() {
+        return "TtyAttributes{values=" + values + ", flags=" + flags + "}";
+    }
+
+    //
+    // Parsing
+    //
+
+    /**
+     * Parses the output of <tt>stty -a</tt>.
+     */
+    public static TtyAttributes parse(final String stty) {
+        checkNotNull(stty);
+
+        // separators are kept as null entries, since values never span them
+        List<String> tokens = tokenize(stty);
+        Map<String, Integer> values = new HashMap<String, Integer>(64);
+        Map<String, Boolean> flags = new HashMap<String, Boolean>(128);
+
+        int size = tokens.size();
+        for (int i = 0; i < size; i++) {
+            String token = tokens.get(i);
+            if (token == null) {
+                continue;
+            }
+            String next = i + 1 < size ? tokens.get(i + 1) : null;
+            boolean nextEndsClause = i + 2 >= size || tokens.get(i + 2) == null;
+
+            if ("speed".equals(token) && next != null && isNumber(next)) {
+                // "speed 38400 baud"
+                put(values, token, next);
+                i += "baud".equals(i + 2 < size ? tokens.get(i + 2) : null) ? 2 : 1;
+            }
+            else if ("=".equals(next)) {
+                // name = value
+                if (i + 2 < size && tokens.get(i + 2) != null) {
+                    put(values, token, tokens.get(i + 2));
+                }
+                i += 2;
+            }
+            else if (Character.isLetter(token.charAt(0)) && token.endsWith(":")) {
+                // section header such as "lflags:" or "cchars:"
+            }
+            else if (isNumber(token) && next != null && isWord(next) && nextEndsClause) {
+                // value name, e.g. "85 rows;"
+                put(values, next, token);
+                i++;
+            }
+            else if (isWord(token) && next != null && isValue(next) && nextEndsClause) {
+                // name value, e.g. "rows 85;" or "eol2 <undef>"
+                put(values, token, next);
+                i++;
+            }
+            else if (isFlag(token)) {
+                boolean negated = token.charAt(0) == '-';
+                String name = negated ? token.substring(1) : token;
+                if (!flags.containsKey(name)) {
+                    flags.put(name, !negated);
+                }
+            }
+        }
+
+        return new TtyAttributes(values, flags);
+    }
+
+    private static List<String> tokenize(final String stty) {
+        List<String> tokens = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0, n = stty.length(); i <= n; i++) {
+            char c = i < n ? stty.charAt(i) : '\n';
+            boolean separator = c == ';' || c == ',' || c == '\n' || c == '\r';
+            if (separator || Character.isWhitespace(c)) {
+                if (start >= 0) {
+                    tokens.add(stty.substring(start, i));
+                    start = -1;
+                }
+                if (separator && !tokens.isEmpty() && tokens.get(tokens.size() - 1) != null) {
+                    tokens.add(null);
+                }
+            }
+            else if (start < 0) {
+                start = i;
+            }
+        }
+        return tokens;
+    }
+
+    private static void put(final Map<String, Integer> values, final String name, final String value) {
+        // the first occurrence wins, like a regex scan over the text would
+        if (values.containsKey(name)) {
+            return;
+        }
+        try {
+            values.put(name, parseControlChar(value));
+        }
+        catch (RuntimeException e) {
+            // not a number nor a control character (e.g. "eucw 1:0:0:0"), ignore
+        }
+    }
+
+    private static boolean isNumber(final String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (!Character.isDigit(str.charAt(i))) {
+                return false;
+            }
+        }
+        return str.length() > 0;
+    }
+
+    private static boolean isWord(final String str) {
+        return isWord(str, 0);
+    }
+
+    private static boolean isWord(final String str, final int from) {
+        for (int i = from; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (!Character.isLetter(c) && !(i > from && Character.isDigit(c))) {
+                return false;
+            }
+        }
+        return str.length() > from;
+    }
+
+    private static boolean isValue(final String str) {
+        char c = str.charAt(0);
+        return Character.isDigit(c) || c == '<' || c == '^' || (str.length() == 1 && !Character.isLetter(c) && c != '=');
+    }
+
+    private static boolean isFlag(final String str) {
+        return isWord(str, str.charAt(0) == '-' ? 1 : 0);
+    }
+
+    /**
+     * Parses a control character or numeric value as printed by <tt>stty</tt>.
+     *
+     * @return the value, or {@link #UNDEFINED} for <tt>&lt;undef&gt;</tt>.
+     */
+    static int parseControlChar(final String str) {
+        // under
+        if ("<undef>".equals(str)) {
+            return UNDEFINED;
+        }
+        // HP-UX
+        if ("DEL".equals(str)) {
+            return 127;
+        }
+        // octal
+        if (str.charAt(0) == '0') {
+            return Integer.parseInt(str, 8);
+        }
+        // decimal
+        if (str.charAt(0) >= '1' && str.charAt(0) <= '9') {
+            return Integer.parseInt(str, 10);
+        }
+        // control char
+        if (str.charAt(0) == '^') {
+            if (str.charAt(1) == '?') {
+                return 127;
+            } else {
+                return str.charAt(1) - 64;
+            }
+        } else if (str.charAt(0) == 'M' && str.charAt(1) == '-') {
+            if (str.charAt(2) == '^') {
+                if (str.charAt(3) == '?') {
+                    return 127 + 128;
+                } else {
+                    return str.charAt(3) - 64 + 128;
+                }
+            } else {
+                return str.charAt(2) + 128;
+            }
+        } else {
+            return str.charAt(0);
+        }
+    }
+}
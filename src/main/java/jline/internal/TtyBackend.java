@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.io.IOException;
+
+/**
+ * Applies <tt>stty</tt> operands to the controlling terminal.
+ * <p/>
+ * Implementations are free to fork <tt>stty</tt> or to manipulate the terminal
+ * attributes in-process, but they must accept the same operands and answer
+ * <tt>-g</tt> and <tt>-a</tt> queries in a form that {@link TerminalLineSettings}
+ * can parse and hand back for restoring.
+ *
+ * @since 2.13
+ */
+public interface TtyBackend
+{
+    /**
+     * Runs the given <tt>stty</tt> operands.
+     *
+     * @param args the operands, e.g. <tt>"-icanon min 1"</tt> or <tt>"-a"</tt>.
+     * @return the output <tt>stty</tt> would have produced, never null.
+     */
+    String stty(String args) throws IOException, InterruptedException;
+}
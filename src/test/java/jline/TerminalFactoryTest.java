@@ -8,12 +8,15 @@
  */
 package scala.tools.jline;
 
+import scala.tools.jline.internal.Configuration;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * Tests for the {@link TerminalFactory}.
@@ -53,4 +56,15 @@ public class TerminalFactoryTest
             TerminalFactory.configure(TerminalFactory.AUTO);
         }
     }
+
+    @Test
+    public void testAutoWithoutTty() {
+        assumeTrue(!Configuration.isWindows());
+        assumeTrue(Boolean.FALSE.equals(TerminalFactory.isStdinTty()));
+
+        TerminalFactory.configure(TerminalFactory.AUTO);
+        Terminal t = TerminalFactory.get();
+        assertEquals(UnsupportedTerminal.class.getName(), t.getClass().getName());
+        assertSame(TerminalFactory.isStdinTty(), TerminalFactory.isStdinTty());
+    }
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import scala.tools.jline.console.ConsoleReader;
+import scala.tools.jline.internal.TerminalLineSettings;
+import scala.tools.jline.internal.TtyBackend;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link UnixTerminal}.
+ */
+public class UnixTerminalTest
+{
+    private RecordingBackend backend;
+
+    private UnixTerminal terminal;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new RecordingBackend();
+        terminal = new UnixTerminal(new TerminalLineSettings(backend));
+    }
+
+    @Test
+    public void testSizeIsCached() throws Exception {
+        backend.calls.clear();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(100, terminal.getWidth());
+            assertEquals(30, terminal.getHeight());
+        }
+        assertEquals(1, backend.count("-a"));
+    }
+
+    @Test
+    public void testWindowChangeInvalidatesSize() throws Exception {
+        final List<Terminal> resized = new ArrayList<Terminal>();
+        terminal.addSizeListener(new TerminalSupport.SizeListener()
+        {
+            public void sizeChanged(final Terminal t) {
+                resized.add(t);
+            }
+        });
+
+        assertEquals(100, terminal.getWidth());
+        backend.columns = 132;
+        terminal.windowChanged();
+
+        assertEquals(1, resized.size());
+        assertEquals(132, terminal.getWidth());
+    }
+
+    @Test
+    public void testWindowChangeDoesNotWaitForSizeQuery() throws Exception {
+        backend.release = new CountDownLatch(1);
+        Thread query = new Thread()
+        {
+            public void run() {
+                terminal.getWidth();
+            }
+        };
+        query.start();
+        try {
+            assertTrue(backend.querying.await(5, TimeUnit.SECONDS));
+
+            Thread signal = new Thread()
+            {
+                public void run() {
+                    terminal.windowChanged();
+                }
+            };
+            signal.start();
+            signal.join(5000);
+            assertFalse(signal.isAlive());
+        }
+        finally {
+            backend.release.countDown();
+            query.join();
+        }
+
+        // the size queried across the window change is stale
+        backend.release = null;
+        backend.columns = 132;
+        assertEquals(132, terminal.getWidth());
+    }
+
+    @Test
+    public void testInitAppliesModesAtOnce() throws Exception {
+        backend.calls.clear();
+        terminal.init();
+        try {
+            assertEquals(1, backend.calls.size());
+            assertEquals("-icanon min 1 -icrnl -inlcr -ixon -echo", backend.calls.get(0));
+            assertFalse(terminal.isEchoEnabled());
+        }
+        finally {
+            backend.calls.clear();
+            terminal.restore();
+        }
+        assertEquals(1, backend.calls.size());
+        assertEquals(RecordingBackend.SAVED, backend.calls.get(0));
+    }
+
+    @Test
+    public void testEditSkipsUnsupportedControlChars() throws Exception {
+        TerminalLineSettings settings = terminal.getSettings();
+        backend.calls.clear();
+
+        settings.edit().apply();
+        assertEquals(0, backend.calls.size());
+
+        settings.edit().undef("dsusp").undef("intr").control("erase", "^H").echo(true).apply();
+        assertEquals(1, backend.calls.size());
+        assertEquals("intr undef erase ^H echo", backend.calls.get(0));
+    }
+
+    @Test
+    public void testRedundantInterruptTransitionsAreSkipped() throws Exception {
+        backend.calls.clear();
+        terminal.enableInterruptCharacter();
+        terminal.disableInterruptCharacter();
+        terminal.disableInterruptCharacter();
+        terminal.enableInterruptCharacter();
+        terminal.enableInterruptCharacter();
+        assertEquals(Arrays.asList("intr undef", "intr ^C"), backend.calls);
+    }
+
+    @Test
+    public void testInterruptCallsPerReadLine() throws Exception {
+        ConsoleReader reader = createReader("a\rb\rc\r");
+        reader.setHandleUserInterrupt(true);
+        assertEquals("a", reader.readLine());
+        assertEquals(2, backend.calls.size());
+        assertEquals("b", reader.readLine());
+        assertEquals("c", reader.readLine());
+        assertEquals(6, backend.calls.size());
+    }
+
+    @Test
+    public void testKeepInterruptDisabled() throws Exception {
+        ConsoleReader reader = createReader("a\rb\rc\r");
+        reader.setHandleUserInterrupt(true);
+        reader.setKeepInterruptDisabled(true);
+        assertEquals("a", reader.readLine());
+        assertEquals("b", reader.readLine());
+        assertEquals("c", reader.readLine());
+        assertEquals(Arrays.asList("intr undef"), backend.calls);
+        assertTrue(terminal.isInterruptCharacterDisabled());
+
+        reader.shutdown();
+        assertEquals(Arrays.asList("intr undef", "intr ^C"), backend.calls);
+    }
+
+    @Test
+    public void testShutdownAfterFlagsChanged() throws Exception {
+        ConsoleReader reader = createReader("a\r");
+        reader.setHandleUserInterrupt(true);
+        reader.setKeepInterruptDisabled(true);
+        assertEquals("a", reader.readLine());
+        assertTrue(terminal.isInterruptCharacterDisabled());
+
+        reader.setKeepInterruptDisabled(false);
+        reader.setHandleUserInterrupt(false);
+        reader.shutdown();
+        assertEquals(Arrays.asList("intr undef", "intr ^C"), backend.calls);
+        assertFalse(terminal.isInterruptCharacterDisabled());
+    }
+
+    private ConsoleReader createReader(final String input) throws Exception {
+        ConsoleReader reader = new ConsoleReader(new ByteArrayInputStream(input.getBytes()), new ByteArrayOutputStream(), terminal);
+        // the size is cached from here on
+        terminal.getWidth();
+        backend.calls.clear();
+        return reader;
+    }
+
+    static class RecordingBackend
+        implements TtyBackend
+    {
+        static final String SAVED = "500:5:bf:8a3b:3:1c:7f:15:4:0:1:0:11:13:1a:0:12:f:17:16:0:0:0";
+
+        final List<String> calls = new CopyOnWriteArrayList<String>();
+
+        volatile int columns = 100;
+
+        /**
+         * When set, size queries wait for it, after counting down {@link #querying}.
+         */
+        volatile CountDownLatch release;
+
+        final CountDownLatch querying = new CountDownLatch(1);
+
+        public String stty(final String args) throws InterruptedException {
+            calls.add(args);
+            if ("-g".equals(args)) {
+                return SAVED;
+            }
+            if ("-a".equals(args)) {
+                if (release != null) {
+                    querying.countDown();
+                    release.await();
+                }
+                return "rows 30; columns " + columns + ";\nintr = ^C; erase = ^?;\nicanon echo\n";
+            }
+            return "";
+        }
+
+        int count(final String args) {
+            int n = 0;
+            for (String call : calls) {
+                if (call.equals(args)) {
+                    n++;
+                }
+            }
+            return n;
+        }
+    }
+}
@@ -10,15 +10,28 @@ package scala.tools.jline.console;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import scala.tools.jline.TerminalFactory;
+import scala.tools.jline.TerminalSupport;
+import scala.tools.jline.UnsupportedTerminal;
 import scala.tools.jline.WindowsTerminal;
+import scala.tools.jline.console.completer.Completer;
 import scala.tools.jline.console.history.History;
 import scala.tools.jline.console.history.MemoryHistory;
 import scala.tools.jline.internal.Configuration;
+import scala.tools.jline.internal.MeteredOutputStream;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -33,22 +46,29 @@ import static org.junit.Assume.*;
 public class ConsoleReaderTest
 {
     
+    private static final String UTF_8 = "UTF-8";
+
     private ByteArrayOutputStream output;
     
     @Before
     public void setUp() throws Exception {
-        TerminalFactory.configure(TerminalFactory.AUTO);
+        // standard input isn't a terminal under the test runner, which auto detection honors
+        TerminalFactory.configure(Configuration.isWindows() ? TerminalFactory.AUTO : TerminalFactory.UNIX);
         TerminalFactory.reset();
         System.setProperty(Configuration.JLINE_CONFIGURATION, "/no-such-file");
         System.setProperty(WindowsTerminal.DIRECT_CONSOLE, "false");
         System.setProperty(ConsoleReader.JLINE_INPUTRC, "/no/such/file");
+        // the input is encoded the same way whatever the platform charset and locale are
+        System.setProperty("input.encoding", UTF_8);
         Configuration.reset();
     }
 
     @After
     public void tearDown() throws Exception {
         TerminalFactory.get().restore();
+        TerminalFactory.configure(TerminalFactory.AUTO);
         TerminalFactory.reset();
+        System.clearProperty("input.encoding");
     }
 
     private void assertWindowsKeyBehavior(String expected, char[] input) throws Exception {
@@ -65,7 +85,7 @@ public class ConsoleReaderTest
     }
 
     private ConsoleReader createConsole(String chars) throws Exception {
-        return createConsole(chars.getBytes(Configuration.getEncoding()));
+        return createConsole(chars.getBytes(UTF_8));
     }
 
     private ConsoleReader createConsole(byte[] bytes) throws Exception {
@@ -75,7 +95,7 @@ public class ConsoleReaderTest
     private ConsoleReader createConsole(String appName, byte[] bytes) throws Exception {
         InputStream in = new ByteArrayInputStream(bytes);
         output = new ByteArrayOutputStream();
-        ConsoleReader reader = new ConsoleReader(appName, in, output, null);
+        ConsoleReader reader = new ConsoleReader(appName, in, output, null, UTF_8);
         reader.setHistory(createSeededHistory());
         return reader;
     }
@@ -114,6 +134,311 @@ public class ConsoleReaderTest
         assertEquals("*************", output.toString().trim());
     }
 
+    @Test
+    public void testColoredPromptWidth() throws Exception {
+        ConsoleReader consoleReader = createConsole();
+        consoleReader.setPrompt("\033[1;32mscala\033[0m> ");
+        assertEquals(7, consoleReader.getCursorPosition());
+        consoleReader.setPrompt("welcome\n\u6771\u4EAC> ");
+        assertEquals(6, consoleReader.getCursorPosition());
+    }
+
+    @Test
+    public void testPastedLineIsFlushedOnce() throws Exception {
+        ConsoleReader consoleReader = new ConsoleReader(new ByteArrayInputStream("println(\"hello, world\")\r".getBytes()),
+            new ByteArrayOutputStream(), new TerminalSupport(true) { });
+        assertEquals("println(\"hello, world\")", consoleReader.readLine("> "));
+        MeteredOutputStream meter = consoleReader.getOutputMeter();
+        // the prompt, then the rest of the line
+        assertEquals(2, meter.getFlushes());
+        assertEquals(2, meter.getWrites());
+    }
+
+    @Test
+    public void testTypedLineIsFlushedOncePerKey() throws Exception {
+        InputStream typing = new ByteArrayInputStream("abc\r".getBytes())
+        {
+            // every key arrives on its own
+            @Override
+            public synchronized int available() {
+                return 0;
+            }
+
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        ConsoleReader consoleReader = new ConsoleReader(typing, new ByteArrayOutputStream(), new TerminalSupport(true) { });
+        assertEquals("abc", consoleReader.readLine());
+        assertEquals(4, consoleReader.getOutputMeter().getFlushes());
+        assertEquals(4, consoleReader.getOutputMeter().getWrites());
+    }
+
+    @Test
+    public void testFlushWritesThroughDuringDispatch() throws Exception {
+        final ByteArrayOutputStream terminal = new ByteArrayOutputStream();
+        final ConsoleReader consoleReader = new ConsoleReader(new ByteArrayInputStream("a\t\r".getBytes()),
+            terminal, new TerminalSupport(true) { });
+        final int[] written = new int[1];
+        consoleReader.addCompleter(new Completer()
+        {
+            public int complete(final String buffer, final int cursor, final List<CharSequence> candidates) {
+                try {
+                    // as if slow work followed
+                    consoleReader.print("working");
+                    consoleReader.flush();
+                    written[0] = terminal.toString().indexOf("working");
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return -1;
+            }
+        });
+        consoleReader.readLine();
+        assertTrue(written[0] >= 0);
+    }
+
+    private ConsoleReader createColumnsConsole(String input, final int height) throws Exception {
+        output = new ByteArrayOutputStream();
+        return new ConsoleReader(null, new ByteArrayInputStream(input.getBytes(UTF_8)), output, new TerminalSupport(true)
+        {
+            @Override
+            public int getWidth() {
+                return 12;
+            }
+
+            @Override
+            public int getHeight() {
+                return height;
+            }
+        }, UTF_8);
+    }
+
+    @Test
+    public void testPrintColumns() throws Exception {
+        ConsoleReader consoleReader = createColumnsConsole("", 24);
+        consoleReader.printColumns(Arrays.asList("a", "b", "c", "d", "e", "f", "g"));
+        consoleReader.setColumnsVertical(true);
+        consoleReader.printColumns(Arrays.asList("a", "b", "c", "d", "e", "f", "g"));
+        consoleReader.flush();
+        String cr = ConsoleReader.CR;
+        assertEquals("a   b   c" + cr + "d   e   f" + cr + "g" + cr
+            + "a   d   g" + cr + "b   e" + cr + "c   f" + cr, output.toString());
+    }
+
+    @Test
+    public void testPrintColumnsOfColoredItems() throws Exception {
+        ConsoleReader consoleReader = createColumnsConsole("", 24);
+        consoleReader.printColumns(Arrays.asList("\033[1ma\033[0m", "bb", "\u6771"));
+        consoleReader.flush();
+        String cr = ConsoleReader.CR;
+        assertEquals("\033[1ma\033[0m    bb" + cr + "\u6771" + cr, output.toString(UTF_8));
+    }
+
+    /**
+     * Like jansi's AnsiString, which only shows the plain text through charAt() and length().
+     */
+    private static CharSequence ansiString(final String str) {
+        final String plain = str.replaceAll("\033\\[[0-9;]*m", "");
+        return new CharSequence()
+        {
+            public int length() {
+                return plain.length();
+            }
+
+            public char charAt(final int index) {
+                return plain.charAt(index);
+            }
+
+            public CharSequence subSequence(final int start, final int end) {
+                return plain.subSequence(start, end);
+            }
+
+            @Override
+            public String toString() {
+                return str;
+            }
+        };
+    }
+
+    @Test
+    public void testPrintAnsiStrings() throws Exception {
+        ConsoleReader consoleReader = createColumnsConsole("", 24);
+        consoleReader.print(ansiString("\033[1mx\033[0m\t"));
+        consoleReader.println();
+        consoleReader.printColumns(Arrays.asList(ansiString("\033[1ma\033[0m"), "bb"));
+        consoleReader.printColumns(Arrays.asList(ansiString("\033[1mc\033[0m"), "dd").iterator());
+        consoleReader.flush();
+        String cr = ConsoleReader.CR;
+        assertEquals("\033[1mx\033[0m    " + cr + "\033[1ma\033[0m    bb" + cr + "\033[1mc\033[0m    dd" + cr,
+            output.toString(UTF_8));
+    }
+
+    @Test
+    public void testPrintColumnsStreamsPages() throws Exception {
+        ConsoleReader consoleReader = createColumnsConsole("q", 3);
+        consoleReader.setPaginationEnabled(true);
+        final int[] taken = new int[1];
+        Iterator<String> endless = new Iterator<String>()
+        {
+            public boolean hasNext() {
+                return true;
+            }
+
+            public String next() {
+                return "x" + taken[0]++;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        consoleReader.printColumns(endless);
+        consoleReader.flush();
+        String cr = ConsoleReader.CR;
+        assertEquals("x0   x1" + cr + "x2   x3" + cr + "--More--\r        \r", output.toString());
+        // the page, and the first item of the next one
+        assertEquals(5, taken[0]);
+    }
+
+    @Test
+    public void testPrintColumnsReadsWidthOncePerPage() throws Exception {
+        output = new ByteArrayOutputStream();
+        final int[] queries = new int[1];
+        ConsoleReader consoleReader = new ConsoleReader(new ByteArrayInputStream(new byte[0]), output,
+            new TerminalSupport(true)
+            {
+                @Override
+                public int getWidth() {
+                    queries[0]++;
+                    return 12;
+                }
+            });
+        queries[0] = 0;
+        consoleReader.printColumns(Arrays.asList("a", "b", "c", "d", "e", "f", "g").iterator());
+        assertEquals(1, queries[0]);
+    }
+
+    @Test
+    public void testPrintAboveBeforeReading() throws Exception {
+        output = new ByteArrayOutputStream();
+        ConsoleReader consoleReader = new ConsoleReader(new ByteArrayInputStream("ab\r".getBytes()), output,
+            new TerminalSupport(true) { });
+        consoleReader.printAbove("compiling");
+        consoleReader.printAbove("done");
+        assertEquals("ab", consoleReader.readLine("> "));
+        String cr = ConsoleReader.CR;
+        assertEquals("> \r  \rcompiling" + cr + "done" + cr + "\r> ab" + cr, output.toString());
+    }
+
+    @Test
+    public void testPrintAboveWhileWaitingForKey() throws Exception {
+        PipedOutputStream keys = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(keys);
+        final ByteArrayOutputStream screen = new ByteArrayOutputStream();
+        final ConsoleReader consoleReader = new ConsoleReader(in, screen, new TerminalSupport(true) { });
+        final String[] line = new String[1];
+        Thread reading = new Thread()
+        {
+            @Override
+            public void run() {
+                try {
+                    line[0] = consoleReader.readLine("> ");
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        reading.start();
+        keys.write("ab".getBytes());
+        keys.flush();
+        awaitOutput(screen, "> ab");
+
+        consoleReader.printAbove("done");
+        awaitOutput(screen, "done");
+        keys.write('\r');
+        keys.flush();
+        reading.join(5000);
+
+        assertEquals("ab", line[0]);
+        String cr = ConsoleReader.CR;
+        assertEquals("> ab\r    \rdone" + cr + "\r> ab" + cr, screen.toString());
+    }
+
+    private void awaitOutput(ByteArrayOutputStream screen, String str) throws InterruptedException {
+        for (int i = 0; i < 500 && !screen.toString().contains(str); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(screen.toString().contains(str));
+    }
+
+    @Test
+    public void testPastedEditsAreDrawnOnce() throws Exception {
+        ConsoleReader consoleReader = new ConsoleReader(new ByteArrayInputStream("abc\025xyz\r".getBytes()),
+            new ByteArrayOutputStream(), new TerminalSupport(true) { });
+        assertEquals("xyz", consoleReader.readLine("> "));
+        // the text deleted by ^U never reaches the screen
+        assertEquals(("> xyz" + ConsoleReader.CR).length(), consoleReader.getOutputMeter().getBytes());
+    }
+
+    @Test
+    public void testMaskRedrawBacksOff() throws Exception {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled());
+
+        PipedOutputStream typing = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(typing);
+        output = new ByteArrayOutputStream();
+        final ConsoleReader consoleReader = new ConsoleReader(in, output, new UnsupportedTerminal());
+
+        // the line arrives after a while, like when somebody types a password
+        final OutputStream keyboard = typing;
+        final long[] cpuTime = { -1 };
+        final Exception[] failure = new Exception[1];
+        Thread typist = new Thread()
+        {
+            public void run() {
+                try {
+                    Thread mask;
+                    while ((mask = consoleReader.getMaskThread()) == null) {
+                        sleep(1);
+                    }
+                    sleep(1000);
+                    cpuTime[0] = threads.getThreadCpuTime(mask.getId());
+                    keyboard.write("secret\n".getBytes());
+                }
+                catch (Exception e) {
+                    failure[0] = e;
+                }
+                finally {
+                    // ends the read either way
+                    try {
+                        keyboard.close();
+                    }
+                    catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        };
+        typist.start();
+        String line = consoleReader.readLine("pwd> ", '*');
+        typist.join();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        assertEquals("secret", line);
+
+        // a second of waiting takes a redraw per frame at most, not one every 3 ms
+        int redraws = output.toString().split("\r", -1).length / 2;
+        assertTrue("redraws: " + redraws, redraws > 0 && redraws < 100);
+        long cpuMillis = cpuTime[0] / 1000000;
+        assertTrue("cpu: " + cpuMillis + " ms", cpuTime[0] >= 0 && cpuMillis < 50);
+    }
+
     @Test
     public void testDeleteOnWindowsTerminal() throws Exception {
         // test only works on Windows
@@ -533,6 +858,44 @@ public class ConsoleReaderTest
         assertEquals("foofoo", line);
     }
 
+    @Test
+    public void testKeyFollowingAShorterBinding() throws Exception {
+        ConsoleReader consoleReader = createConsole("ab xa\u0002c\r\n");
+        // 'a' still inserts itself when the key after it isn't 'b'
+        consoleReader.getKeys().bind("ab", "hello");
+        assertEquals("hello xca", consoleReader.readLine());
+    }
+
+    @Test
+    public void testKeysFollowingAShorterBinding() throws Exception {
+        ConsoleReader consoleReader = createConsole("abx abc\r\n");
+        consoleReader.getKeys().bind("abc", "hello");
+        assertEquals("abx hello", consoleReader.readLine());
+    }
+
+    @Test
+    public void testMacroOfCharactersBeyondTheBmp() throws Exception {
+        ConsoleReader consoleReader = createConsole("ab-ab\r\n");
+        consoleReader.getKeys().bind("ab", "\uD83D\uDE00\uD835\uDC9C");
+        assertEquals("\uD83D\uDE00\uD835\uDC9C-\uD83D\uDE00\uD835\uDC9C", consoleReader.readLine());
+    }
+
+    @Test
+    public void testKeyBeyondTheBmp() throws Exception {
+        ConsoleReader consoleReader = createConsole("a\uD83D\uDE00b\uD83D\uDE01\r\n");
+        consoleReader.getKeys().bind("\uD83D\uDE00", "smile");
+        assertEquals("asmileb\uD83D\uDE01", consoleReader.readLine());
+    }
+
+    @Test
+    public void testLowercaseVersionBeyondTheBmp() throws Exception {
+        // DESERET CAPITAL LETTER LONG I stands for its small letter
+        ConsoleReader consoleReader = createConsole("a\uD801\uDC00b\r\n");
+        consoleReader.getKeys().bind("\uD801\uDC00", Operation.DO_LOWERCASE_VERSION);
+        consoleReader.getKeys().bind("\uD801\uDC28", "small");
+        assertEquals("asmallb", consoleReader.readLine());
+    }
+
     @Test
     public void testInput() throws Exception {
         System.setProperty(ConsoleReader.JLINE_INPUTRC, getClass().getResource("/scala/tools/jline/internal/config1").toExternalForm());
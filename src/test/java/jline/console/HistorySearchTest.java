@@ -1,6 +1,9 @@
 package scala.tools.jline.console;
 
+import scala.tools.jline.TerminalFactory;
 import scala.tools.jline.console.history.MemoryHistory;
+import scala.tools.jline.internal.Configuration;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -17,11 +20,38 @@ public class HistorySearchTest {
 
     @Before
     public void setUp() throws Exception {
+        // standard input isn't a terminal under the test runner, which auto detection honors
+        TerminalFactory.configure(Configuration.isWindows() ? TerminalFactory.AUTO : TerminalFactory.UNIX);
+        TerminalFactory.reset();
         InputStream in = new ByteArrayInputStream(new byte[]{});
         output = new ByteArrayOutputStream();
         reader = new ConsoleReader("test console reader", in, output, null);
     }
 
+    @After
+    public void tearDown() throws Exception {
+        TerminalFactory.configure(TerminalFactory.AUTO);
+        TerminalFactory.reset();
+    }
+
+    /**
+     * Returns input whose keys arrive one at a time, rather than all at once as if pasted.
+     */
+    private InputStream typed(final byte[] keys) {
+        return new ByteArrayInputStream(keys)
+        {
+            @Override
+            public synchronized int available() {
+                return 0;
+            }
+
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+    }
+
     private MemoryHistory setupHistory() {
         MemoryHistory history = new MemoryHistory();
         history.setMaxSize(10);
@@ -113,7 +143,8 @@ public class HistorySearchTest {
         MemoryHistory history = setupHistory();
 
         String readLineResult;
-        reader.setInput(new ByteArrayInputStream(new byte[]{
+        // typed, so that the search prompt is drawn before it goes away
+        reader.setInput(typed(new byte[]{
                 'f', KeyMap.CTRL_R, 'f', KeyMap.CTRL_G
         }));
         readLineResult = reader.readLine();
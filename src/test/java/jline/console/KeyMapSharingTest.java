@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.console;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the maps of a reader share what they bind with the default maps.
+ */
+public class KeyMapSharingTest
+{
+    @Test
+    public void testReaderOwnsLittleOfItsMaps() throws Exception {
+        int shared = KeyMap.countSlots(KeyMap.defaults(), false);
+        Map<String, KeyMap> keyMaps = KeyMap.keyMaps();
+        int all = KeyMap.countSlots(keyMaps.values(), false);
+        int owned = KeyMap.countSlots(keyMaps.values(), true);
+
+        // only the emacs map is copied, to hold the emacs-ctlx and emacs-meta maps
+        assertTrue("a reader owns " + owned + " of " + all + " slots", owned * 10 < all);
+        assertTrue(all >= shared);
+
+        // looking keys up doesn't copy anything
+        keyMaps.get(KeyMap.EMACS).getBound("\033[");
+        keyMaps.get(KeyMap.VI_INSERT).getBound("\033[A");
+        assertEquals(owned, KeyMap.countSlots(keyMaps.values(), true));
+
+        // binding a sequence copies the maps on its way
+        keyMaps.get(KeyMap.VI_INSERT).bind("\033[5~", Operation.BEGINNING_OF_HISTORY);
+        int bound = KeyMap.countSlots(keyMaps.values(), true);
+        assertTrue(bound > owned);
+        assertTrue(bound * 5 < all);
+    }
+
+    @Test
+    public void testBindInLookedUpMap() throws Exception {
+        Map<String, KeyMap> keyMaps = KeyMap.keyMaps();
+        KeyMap viIns = keyMaps.get(KeyMap.VI_INSERT);
+        int owned = KeyMap.countSlots(keyMaps.values(), true);
+
+        KeyMap csi = (KeyMap) viIns.getBound("\033[");
+        assertEquals(owned, KeyMap.countSlots(keyMaps.values(), true));
+        csi.bind("Z", Operation.BEGINNING_OF_HISTORY);
+
+        assertEquals(Operation.BEGINNING_OF_HISTORY, viIns.getBound("\033[Z"));
+        assertSame(csi, viIns.getBound("\033["));
+        assertEquals(Operation.PREVIOUS_HISTORY, viIns.getBound("\033[A"));
+
+        // other readers don't see it
+        assertNull(KeyMap.keyMaps().get(KeyMap.VI_INSERT).getBound("\033[Z"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBindInReplacedMap() throws Exception {
+        KeyMap viIns = KeyMap.keyMaps().get(KeyMap.VI_INSERT);
+        KeyMap first = (KeyMap) viIns.getBound("\033[");
+        KeyMap second = (KeyMap) viIns.getBound("\033[");
+        first.bind("Z", Operation.BEGINNING_OF_HISTORY);
+        second.bind("Y", Operation.END_OF_HISTORY);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.console;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import scala.tools.jline.TerminalSupport;
+
+/**
+ * Counts the bytes a {@link ConsoleReader} writes to the terminal for a few editing
+ * sessions on long lines, such as recalling definitions of several kilobytes from the
+ * history. Run it by hand:
+ * <pre>
+ * java -cp ... scala.tools.jline.console.ScreenRendererBenchmark [width]
+ * </pre>
+ */
+public class ScreenRendererBenchmark
+{
+    private static final String UP = "\033[A";
+
+    private static final String DOWN = "\033[B";
+
+    public static void main(final String[] args) throws Exception {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 80;
+
+        String[] definitions = new String[20];
+        for (int i = 0; i < definitions.length; i++) {
+            definitions[i] = definition(i);
+        }
+
+        StringBuilder recall = new StringBuilder();
+        for (int i = 0; i < definitions.length; i++) {
+            recall.append(UP);
+        }
+        for (int i = 0; i < definitions.length; i++) {
+            recall.append(DOWN);
+        }
+        run("history recall", width, definitions, recall.toString(), definitions.length * 2);
+
+        run("typing", width, new String[0], definitions[0], definitions[0].length());
+
+        StringBuilder moves = new StringBuilder(UP + "\001");
+        for (int i = 0; i < 500; i++) {
+            moves.append("\006");
+        }
+        for (int i = 0; i < 100; i++) {
+            moves.append("\002");
+        }
+        run("cursor movement", width, definitions, moves.toString(), 602);
+
+        StringBuilder insert = new StringBuilder(UP + "\001");
+        for (int i = 0; i < 2000; i++) {
+            insert.append("\006");
+        }
+        String typed = "val inserted = 1; ";
+        insert.append(typed);
+        run("insert in the middle", width, definitions, insert.toString(), typed.length());
+    }
+
+    /**
+     * Returns a definition of about 5 KB; consecutive ones differ in a few places.
+     */
+    private static String definition(final int n) {
+        StringBuilder buff = new StringBuilder("def handler" + n + "(request: Request): Response = { ");
+        for (int i = 0; i < 60; i++) {
+            buff.append("val field").append(i).append(" = request.param(\"field").append(i).append("\")");
+            buff.append(i == n ? ".trim; " : "; ");
+        }
+        buff.append("Response(").append(n % 3 == 0 ? "Ok" : "Created").append(") }");
+        return buff.toString();
+    }
+
+    private static void run(final String name, final int width, final String[] history, final String keys,
+                            final int measured) throws IOException
+    {
+        CountingOutputStream out = new CountingOutputStream();
+        ConsoleReader reader = new ConsoleReader(new ByteArrayInputStream(keys.getBytes()), out, new BenchmarkTerminal(width));
+        for (String line : history) {
+            reader.getHistory().add(line);
+        }
+        reader.setPrompt("scala> ");
+
+        long start = System.nanoTime();
+        reader.readLine();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(String.format("%-22s %9d bytes, %7d per key, %6d us", name + ":", out.count,
+            out.count / measured, elapsed / 1000));
+    }
+
+    private static class BenchmarkTerminal
+        extends TerminalSupport
+    {
+        private final int width;
+
+        BenchmarkTerminal(final int width) {
+            super(true);
+            this.width = width;
+            setAnsiSupported(true);
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+    }
+
+    private static class CountingOutputStream
+        extends OutputStream
+    {
+        long count;
+
+        @Override
+        public void write(final int b) {
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,518 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.console;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import scala.tools.jline.TerminalSupport;
+import scala.tools.jline.internal.DisplayWidth;
+import scala.tools.jline.internal.Terminfo;
+import scala.tools.jline.internal.TerminfoTest;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link ScreenRenderer}, checked against an emulated screen.
+ */
+public class ScreenRendererTest
+{
+    private static final String PROMPT = "> ";
+
+    private Screen screen;
+
+    private ScreenRenderer renderer;
+
+    private void setUp(final int width, final boolean ansi, final boolean weirdWrap, final Terminfo caps) {
+        screen = new Screen(width, weirdWrap);
+        renderer = new ScreenRenderer(screen, new TestTerminal(ansi, weirdWrap), caps);
+        screen.print(PROMPT);
+        renderer.reset(PROMPT, PROMPT.length(), width);
+    }
+
+    private String render(final String text, final int cursor) throws IOException {
+        screen.output.setLength(0);
+        renderer.render(PROMPT, PROMPT.length(), text, cursor, screen.width);
+        screen.assertShows(PROMPT + text, PROMPT.length() + cursor);
+        return screen.output.toString();
+    }
+
+    /**
+     * Shows text typed at the end of the line, if the renderer takes it without a full frame.
+     */
+    private boolean append(final String text, final int from) throws IOException {
+        screen.output.setLength(0);
+        if (!renderer.append(PROMPT, text, from)) {
+            assertEquals("", screen.output.toString());
+            return false;
+        }
+        screen.assertShows(PROMPT + text, PROMPT.length() + text.length());
+        return true;
+    }
+
+    @Test
+    public void testTypingWritesOnlyNewCharacters() throws Exception {
+        setUp(80, true, true, Terminfo.ANSI);
+        String text = "";
+        for (char c : "def foo = 42".toCharArray()) {
+            text += c;
+            assertEquals(String.valueOf(c), render(text, text.length()));
+        }
+    }
+
+    @Test
+    public void testTypingAppendsUntilTheRowEnds() throws Exception {
+        setUp(10, true, true, Terminfo.ANSI);
+        render("", 0);
+        assertTrue(append("abc", 0));
+        assertTrue(append("abcdefg", 3));
+        // the last column leaves a pending wrap behind
+        assertFalse(append("abcdefgh", 7));
+        render("abcdefgh", 8);
+        assertTrue(append("abcdefghi", 8));
+        // only plain text is appended
+        assertFalse(append("abcdefghi\u6771", 9));
+        render("abcdefghi\u6771", 10);
+        render("abcdefghi\u6771", 3);
+        assertFalse(append("abcdefghi\u6771x", 10));
+    }
+
+    @Test
+    public void testReplacingLineWritesDifference() throws Exception {
+        setUp(40, true, true, Terminfo.ANSI);
+        String body = "{ val x = List(1, 2, 3).map(_ * 2).filter(_ > 2); x.sum } ";
+        String before = "def first(a: Int) = " + body + body + body;
+        String after = "def other(a: Int) = " + body + body + body;
+
+        render(before, before.length());
+        String output = render(after, after.length());
+        assertTrue(output, output.length() < 30);
+        assertTrue(output, output.contains("other"));
+    }
+
+    @Test
+    public void testShorterLineIsErased() throws Exception {
+        setUp(20, true, true, Terminfo.ANSI);
+        render("a fairly long line that wraps twice over", 10);
+        String output = render("a fairly", 8);
+        assertTrue(output, output.contains("\033[J"));
+    }
+
+    @Test
+    public void testInsertAndDeleteInPlace() throws Exception {
+        setUp(80, true, true, TerminfoTest.load());
+        render("println(\"hello world, hello world, hello world\")", 8);
+        assertEquals("\033[1@x", render("println(x\"hello world, hello world, hello world\")", 9));
+        assertEquals("\b\033[P", render("println(\"hello world, hello world, hello world\")", 8));
+    }
+
+    @Test
+    public void testCursorLeavesLastColumn() throws Exception {
+        setUp(10, true, true, Terminfo.ANSI);
+        render("12345678", 8);
+        assertFalse(screen.pending);
+        render("123456789012345678", 18);
+        assertFalse(screen.pending);
+        assertEquals(2, screen.row);
+        assertEquals(0, screen.col);
+    }
+
+    @Test
+    public void testPromptChange() throws Exception {
+        setUp(30, true, true, Terminfo.ANSI);
+        render("some text", 9);
+        screen.output.setLength(0);
+        renderer.render("(search)`s': ", 13, "some text", 0, 30);
+        screen.assertShows("(search)`s': some text", 13);
+        renderer.render(PROMPT, PROMPT.length(), "some text", 9, 30);
+        screen.assertShows(PROMPT + "some text", PROMPT.length() + 9);
+    }
+
+    @Test
+    public void testWideCharacterMovesToNextRow() throws Exception {
+        setUp(10, true, true, Terminfo.ANSI);
+        // the fourth ideograph would straddle the first and second rows
+        render("a\u6771\u4EAC\u30BF\u30EF\u30FC", 6);
+        assertEquals(1, screen.row);
+        assertEquals(4, screen.col);
+        render("a\u6771\u4EAC\u30BF\u30EF\u30FC!", 7);
+        render("ab\u6771\u4EAC\u30BF\u30EF\u30FC!", 2);
+        render("\u6771\u4EAC\u30BF\u30EF\u30FC!", 0);
+    }
+
+    @Test
+    public void testClustersTakeOneCell() throws Exception {
+        setUp(12, true, true, TerminfoTest.load());
+        String emoji = new String(Character.toChars(0x1F600));
+        render("e\u0301t\u00E9", 5);
+        assertEquals(5, screen.col);
+        render(emoji + "e\u0301t\u00E9", 2);
+        assertEquals(4, screen.col);
+        render(emoji + "xe\u0301t\u00E9", 3);
+        render(emoji + "e\u0301t\u00E9", 2);
+        render("e\u0301t\u00E9 " + emoji + emoji + emoji + emoji, 14);
+    }
+
+    @Test
+    public void testRandomEdits() throws Exception {
+        Terminfo[] caps = { Terminfo.ANSI, TerminfoTest.load() };
+        for (Terminfo terminfo : caps) {
+            for (boolean weirdWrap : new boolean[] { true, false }) {
+                setUp(13, true, weirdWrap, terminfo);
+                edit(new Random(42), 60, "a", "b", "c", "d");
+            }
+        }
+        // without ansi the cursor can't go back up, so the line is kept on a single row
+        setUp(1000, false, true, Terminfo.ANSI);
+        edit(new Random(42), 60, "a", "b", "c", "d");
+    }
+
+    @Test
+    public void testRandomEditsOfWideText() throws Exception {
+        String[] tokens = { "a", "b", "\u6771", "\uAC00", new String(Character.toChars(0x1F600)), "e\u0301" };
+        Terminfo[] caps = { Terminfo.ANSI, TerminfoTest.load() };
+        for (Terminfo terminfo : caps) {
+            for (boolean weirdWrap : new boolean[] { true, false }) {
+                setUp(13, true, weirdWrap, terminfo);
+                edit(new Random(7), 40, tokens);
+            }
+        }
+        setUp(1000, false, true, Terminfo.ANSI);
+        edit(new Random(7), 40, tokens);
+    }
+
+    /**
+     * Makes random edits to a line made of the given tokens, which are kept whole.
+     */
+    private void edit(final Random random, final int max, final String... alphabet) throws IOException {
+        List<String> tokens = new ArrayList<String>();
+        int cursor = 0;
+        String last = "";
+        for (int i = 0; i < 2000; i++) {
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1:
+                    if (tokens.size() < max) {
+                        tokens.add(cursor++, alphabet[random.nextInt(alphabet.length)]);
+                    }
+                    break;
+                case 2:
+                    if (cursor > 0) {
+                        tokens.remove(--cursor);
+                    }
+                    break;
+                case 3:
+                    cursor = random.nextInt(tokens.size() + 1);
+                    break;
+                case 4:
+                    if (cursor < tokens.size()) {
+                        tokens.set(cursor, alphabet[random.nextInt(alphabet.length)]);
+                    }
+                    break;
+                default:
+                    int keep = random.nextInt(tokens.size() + 1);
+                    while (tokens.size() > keep) {
+                        tokens.remove(tokens.size() - 1);
+                    }
+                    cursor = tokens.size();
+            }
+            StringBuilder text = new StringBuilder();
+            int position = 0;
+            for (int j = 0; j < tokens.size(); j++) {
+                if (j == cursor) {
+                    position = text.length();
+                }
+                text.append(tokens.get(j));
+            }
+            String str = text.toString();
+            if (cursor < tokens.size() || !str.startsWith(last) || !append(str, last.length())) {
+                render(str, cursor == tokens.size() ? str.length() : position);
+            }
+            last = str;
+        }
+    }
+
+    private static class TestTerminal
+        extends TerminalSupport
+    {
+        private final boolean weirdWrap;
+
+        TestTerminal(final boolean ansi, final boolean weirdWrap) {
+            super(true);
+            this.weirdWrap = weirdWrap;
+            setAnsiSupported(ansi);
+        }
+
+        @Override
+        public boolean hasWeirdWrap() {
+            return weirdWrap;
+        }
+    }
+
+    /**
+     * Emulates the part of a VT100 used by the renderer. With a weird wrap the cursor stays
+     * in the last column after writing to it, until the next character is written. Wide
+     * characters take two cells and don't straddle rows; combining characters join the
+     * cell written last.
+     */
+    private static class Screen
+        extends Writer
+    {
+        private static final String TAIL = "\0";
+
+        final int width;
+
+        final boolean weirdWrap;
+
+        final List<List<String>> rows = new ArrayList<List<String>>();
+
+        final StringBuilder output = new StringBuilder();
+
+        int row;
+
+        int col;
+
+        boolean pending;
+
+        private StringBuilder csi;
+
+        private char high;
+
+        private int lastRow = -1;
+
+        private int lastCol;
+
+        Screen(final int width, final boolean weirdWrap) {
+            this.width = width;
+            this.weirdWrap = weirdWrap;
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            for (int i = off; i < off + len; i++) {
+                output.append(cbuf[i]);
+                print(cbuf[i]);
+            }
+        }
+
+        void print(final String str) {
+            for (char c : str.toCharArray()) {
+                print(c);
+            }
+        }
+
+        private void print(final char c) {
+            if (csi != null) {
+                if (c == '[' && csi.length() == 0) {
+                    csi.append(c);
+                }
+                else if (Character.isDigit(c) || c == ';') {
+                    csi.append(c);
+                }
+                else {
+                    String params = csi.substring(1);
+                    csi = null;
+                    control(c, params.length() == 0 ? 1 : Integer.parseInt(params));
+                }
+                return;
+            }
+            switch (c) {
+                case '\033':
+                    csi = new StringBuilder();
+                    break;
+                case '\r':
+                    col = 0;
+                    pending = false;
+                    break;
+                case '\b':
+                    col = Math.max(col - 1, 0);
+                    pending = false;
+                    break;
+                default:
+                    if (Character.isHighSurrogate(c)) {
+                        high = c;
+                        return;
+                    }
+                    String str = Character.isLowSurrogate(c) ? new String(new char[] { high, c }) : String.valueOf(c);
+                    int w = DisplayWidth.wcwidth(str.codePointAt(0));
+                    if (w == 0) {
+                        cell(lastRow).set(lastCol, cell(lastRow).get(lastCol) + str);
+                        return;
+                    }
+                    if (pending || (w == 2 && col == width - 1)) {
+                        row++;
+                        col = 0;
+                        pending = false;
+                    }
+                    set(row, col, str, w);
+                    lastRow = row;
+                    lastCol = col;
+                    if (col + w < width) {
+                        col += w;
+                    }
+                    else if (weirdWrap) {
+                        col = width - 1;
+                        pending = true;
+                    }
+                    else {
+                        row++;
+                        col = 0;
+                    }
+            }
+        }
+
+        private void control(final char c, final int n) {
+            pending = false;
+            List<String> line = cell(row);
+            switch (c) {
+                case 'A': row = Math.max(row - n, 0); break;
+                case 'B': row += n; break;
+                case 'C': col = Math.min(col + n, width - 1); break;
+                case 'D': col = Math.max(col - n, 0); break;
+                case 'G': col = Math.min(n - 1, width - 1); break;
+                case 'K':
+                    truncate(line, col);
+                    break;
+                case 'J':
+                    truncate(line, col);
+                    while (rows.size() > row + 1) {
+                        rows.remove(rows.size() - 1);
+                    }
+                    break;
+                case '@':
+                    pad(line, col);
+                    for (int i = 0; i < n; i++) {
+                        line.add(col, " ");
+                    }
+                    truncate(line, width);
+                    break;
+                case 'P':
+                    for (int i = 0; i < n && col < line.size(); i++) {
+                        line.remove(col);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected control: " + c);
+            }
+        }
+
+        private List<String> cell(final int i) {
+            while (rows.size() <= i) {
+                rows.add(new ArrayList<String>());
+            }
+            return rows.get(i);
+        }
+
+        private void set(final int r, final int c, final String str, final int w) {
+            List<String> line = cell(r);
+            pad(line, c + w);
+            // writing over half of a wide character blanks the other half
+            if (TAIL.equals(line.get(c)) && c > 0) {
+                line.set(c - 1, " ");
+            }
+            if (c + w < line.size() && TAIL.equals(line.get(c + w))) {
+                line.set(c + w, " ");
+            }
+            line.set(c, str);
+            if (w == 2) {
+                line.set(c + 1, TAIL);
+            }
+        }
+
+        private static void pad(final List<String> line, final int len) {
+            while (line.size() < len) {
+                line.add(" ");
+            }
+        }
+
+        private static void truncate(final List<String> line, final int len) {
+            while (line.size() > len) {
+                line.remove(line.size() - 1);
+            }
+        }
+
+        /**
+         * Checks the screen shows the text, with the cursor before the character at the given index.
+         */
+        void assertShows(final String text, final int cursor) {
+            List<List<String>> expected = new ArrayList<List<String>>();
+            expected.add(new ArrayList<String>());
+            int cursorRow = -1;
+            int cursorCol = -1;
+            int i = 0;
+            while (i <= text.length()) {
+                List<String> line = expected.get(expected.size() - 1);
+                if (i == text.length()) {
+                    if (cursorRow < 0) {
+                        cursorRow = expected.size() - 1 + line.size() / width;
+                        cursorCol = line.size() % width;
+                    }
+                    break;
+                }
+                String str = new String(Character.toChars(text.codePointAt(i)));
+                int w = DisplayWidth.wcwidth(str.codePointAt(0));
+                if (w == 0 && i > 0) {
+                    line.set(line.size() - (TAIL.equals(line.get(line.size() - 1)) ? 2 : 1),
+                        line.get(line.size() - (TAIL.equals(line.get(line.size() - 1)) ? 2 : 1)) + str);
+                }
+                else {
+                    if (line.size() + Math.max(w, 1) > width) {
+                        pad(line, width);
+                        line = new ArrayList<String>();
+                        expected.add(line);
+                    }
+                    if (i <= cursor && cursor < i + str.length()) {
+                        cursorRow = expected.size() - 1;
+                        cursorCol = line.size();
+                    }
+                    line.add(w == 0 ? " " + str : str);
+                    if (w == 2) {
+                        line.add(TAIL);
+                    }
+                }
+                i += str.length();
+            }
+            assertEquals(output.toString(), trim(expected), trim(rows));
+            assertEquals("row", cursorRow, row);
+            assertEquals("column", cursorCol, col);
+            assertFalse("pending wrap", pending);
+        }
+
+        private static List<String> trim(final List<List<String>> lines) {
+            List<String> trimmed = new ArrayList<String>();
+            for (List<String> line : lines) {
+                StringBuilder str = new StringBuilder();
+                for (String cell : line) {
+                    str.append(TAIL.equals(cell) ? "" : cell);
+                }
+                trimmed.add(str.toString().replaceAll(" +$", ""));
+            }
+            while (!trimmed.isEmpty() && trimmed.get(trimmed.size() - 1).length() == 0) {
+                trimmed.remove(trimmed.size() - 1);
+            }
+            return trimmed;
+        }
+
+        @Override
+        public void flush() {
+            // nothing
+        }
+
+        @Override
+        public void close() {
+            // nothing
+        }
+    }
+}
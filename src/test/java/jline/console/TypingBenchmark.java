@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.console;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import scala.tools.jline.TerminalSupport;
+
+/**
+ * Measures the time and the memory a {@link ConsoleReader} takes per keystroke while a line
+ * is typed, one key at a time, on a terminal which counts how often its width is asked for.
+ * Run it by hand, on a JVM which counts allocations per thread:
+ * <pre>
+ * java -cp ... scala.tools.jline.console.TypingBenchmark [keys] [rounds]
+ * </pre>
+ */
+public class TypingBenchmark
+{
+    public static void main(final String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("Allocations can't be counted on this JVM");
+            return;
+        }
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) threads;
+
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < keys; i++) {
+            line.append((char) ('a' + i % 26));
+        }
+        byte[] input = line.append('\r').toString().getBytes();
+
+        BenchmarkTerminal terminal = new BenchmarkTerminal();
+        ConsoleReader reader = new ConsoleReader(new TypedInputStream(input), new NullOutputStream(), terminal);
+        long id = Thread.currentThread().getId();
+        for (int round = 0; round < rounds; round++) {
+            reader.setInput(new TypedInputStream(input));
+            terminal.widthQueries = 0;
+            long start = mx.getThreadAllocatedBytes(id);
+            long time = System.nanoTime();
+            reader.readLine("scala> ");
+            time = System.nanoTime() - time;
+            long allocated = mx.getThreadAllocatedBytes(id) - start;
+            System.out.println(String.format("round %2d: %6d ns, %6d bytes, %.2f width queries per key", round,
+                time / keys, allocated / keys, (double) terminal.widthQueries / keys));
+        }
+    }
+
+    /**
+     * Input whose keys arrive one at a time, so that each of them is drawn on its own.
+     */
+    private static class TypedInputStream
+        extends ByteArrayInputStream
+    {
+        TypedInputStream(final byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public synchronized int available() {
+            return 0;
+        }
+
+        @Override
+        public synchronized int read(final byte[] b, final int off, final int len) {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+
+    private static class BenchmarkTerminal
+        extends TerminalSupport
+    {
+        private int widthQueries;
+
+        BenchmarkTerminal() {
+            super(true);
+            setAnsiSupported(true);
+        }
+
+        @Override
+        public int getWidth() {
+            widthQueries++;
+            return super.getWidth();
+        }
+    }
+
+    private static class NullOutputStream
+        extends OutputStream
+    {
+        @Override
+        public void write(final int b) {
+            // nothing
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            // nothing
+        }
+    }
+}
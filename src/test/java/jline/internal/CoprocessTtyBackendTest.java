@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests for the {@link CoprocessTtyBackend}, with <tt>echo</tt> standing in for <tt>stty</tt>.
+ */
+public class CoprocessTtyBackendTest
+{
+    private CoprocessTtyBackend backend;
+
+    @Before
+    public void setUp() {
+        assumeTrue(!Configuration.isWindows());
+        backend = new CoprocessTtyBackend("sh", "echo", "/dev/null", 5000);
+    }
+
+    @After
+    public void tearDown() {
+        if (backend != null) {
+            backend.close();
+        }
+    }
+
+    @Test
+    public void testRoundTrips() throws Exception {
+        assertEquals("-g\n", backend.stty("-g"));
+        assertEquals("-icanon min 1\n", backend.stty("-icanon min 1"));
+        assertEquals("a\nb\n", backend.stty("'a\nb'"));
+        assertFalse(backend.isFallback());
+    }
+
+    @Test
+    public void testOutputWithoutNewline() throws Exception {
+        backend = new CoprocessTtyBackend("sh", "printf", "/dev/null", 5000);
+        assertEquals("x", backend.stty("x"));
+        assertEquals("y", backend.stty("y"));
+    }
+
+    @Test
+    public void testRestartAfterClose() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i + "\n", backend.stty("" + i));
+            // the old shell's reader still reports its end after this
+            backend.close();
+        }
+        assertFalse(backend.isFallback());
+    }
+
+    @Test
+    public void testFallbackWhenShellDies() throws Exception {
+        backend.stty("-g");
+        backend.stty("; exit");
+        assertTrue(backend.isFallback());
+    }
+}
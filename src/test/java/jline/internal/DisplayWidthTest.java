@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link DisplayWidth}.
+ */
+public class DisplayWidthTest
+{
+    @Test
+    public void testPlainText() {
+        assertEquals(0, DisplayWidth.width(""));
+        assertEquals(7, DisplayWidth.width("scala> "));
+    }
+
+    @Test
+    public void testEscapeSequencesTakeNoCells() {
+        assertEquals(7, DisplayWidth.width("\033[1;32mscala\033[0m> "));
+        assertEquals(2, DisplayWidth.width("\033]0;window title\007> "));
+        assertEquals(2, DisplayWidth.width("\033]0;window title\033\\> "));
+        assertEquals(2, DisplayWidth.width("\033(B> "));
+        // cut off in the middle
+        assertEquals(1, DisplayWidth.width(">\033[1;3"));
+    }
+
+    @Test
+    public void testWideAndZeroWidthCharacters() {
+        assertEquals(2, DisplayWidth.wcwidth('\u6771'));
+        assertEquals(2, DisplayWidth.wcwidth('\uAC00'));
+        assertEquals(2, DisplayWidth.wcwidth(0x20000));
+        assertEquals(1, DisplayWidth.wcwidth('\u00E9'));
+        assertEquals(0, DisplayWidth.wcwidth('\u0301'));
+        assertEquals(0, DisplayWidth.wcwidth('\u200B'));
+        assertEquals(0, DisplayWidth.wcwidth('\r'));
+
+        assertEquals(6, DisplayWidth.width("\u6771\u4EAC> "));
+        assertEquals(3, DisplayWidth.width("e\u0301> "));
+        assertEquals(4, DisplayWidth.width(new StringBuilder().appendCodePoint(0x20000).append("> ")));
+    }
+
+    @Test
+    public void testPartOfText() {
+        String str = "\033[1mab\033[0m\u6771cd";
+        assertEquals(2, DisplayWidth.width(str, 0, 6));
+        assertEquals(3, DisplayWidth.width(str, 6, str.indexOf('d')));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link NonBlockingInputStream}.
+ */
+public class NonBlockingInputStreamTest
+{
+    @Test
+    public void testReadDrainsWhatWasReadAhead() throws Exception {
+        byte[] pasted = new byte[5000];
+        Arrays.fill(pasted, (byte) 'x');
+        NonBlockingInputStream in = new NonBlockingInputStream(new ByteArrayInputStream(pasted), true);
+        try {
+            assertEquals('x', in.peek(0));
+            assertEquals(pasted.length, in.available());
+            assertEquals(pasted.length, in.read(new byte[8192], 0, 8192));
+            assertEquals(-1, in.read());
+        }
+        finally {
+            in.shutdown();
+        }
+    }
+
+    @Test
+    public void testSameBytesAsTheWrappedStream() throws Exception {
+        Random random = new Random(5);
+        byte[] input = new byte[100000];
+        random.nextBytes(input);
+        final Random chunks = new Random(7);
+        // the wrapped stream hands out odd amounts, so that the ring wraps around anywhere
+        InputStream wrapped = new ByteArrayInputStream(input)
+        {
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                return super.read(b, off, Math.min(len, 1 + chunks.nextInt(3000)));
+            }
+        };
+        NonBlockingInputStream in = new NonBlockingInputStream(wrapped, true);
+        try {
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            byte[] b = new byte[4096];
+            while (true) {
+                if (random.nextBoolean()) {
+                    int c = random.nextBoolean() ? in.read() : in.read(0L);
+                    if (c == -1) {
+                        break;
+                    }
+                    read.write(c);
+                }
+                else {
+                    int n = in.read(b, 0, 1 + random.nextInt(b.length));
+                    if (n == -1) {
+                        break;
+                    }
+                    read.write(b, 0, n);
+                }
+            }
+            assertTrue(Arrays.equals(input, read.toByteArray()));
+        }
+        finally {
+            in.shutdown();
+        }
+    }
+
+    @Test
+    public void testPeekTimesOutWithoutLosingInput() throws Exception {
+        PipedOutputStream typing = new PipedOutputStream();
+        NonBlockingInputStream in = new NonBlockingInputStream(new PipedInputStream(typing), true);
+        try {
+            assertEquals(-2, in.peek(20));
+            assertEquals(-2, in.read(20));
+            typing.write("\033[A".getBytes());
+            assertEquals(27, in.peek(1000));
+            assertEquals(27, in.read());
+            assertEquals('[', in.read(20));
+            assertEquals('A', in.read());
+        }
+        finally {
+            in.shutdown();
+        }
+    }
+
+    @Test
+    public void testWakeUp() throws Exception {
+        PipedOutputStream typing = new PipedOutputStream();
+        NonBlockingInputStream in = new NonBlockingInputStream(new PipedInputStream(typing), true);
+        try {
+            in.wakeUp();
+            assertEquals(-2, in.peek(0));
+            typing.write('a');
+            assertEquals('a', in.peek(0));
+            assertEquals('a', in.read());
+        }
+        finally {
+            in.shutdown();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testErrorIsThrownToTheReader() throws Exception {
+        InputStream broken = new InputStream()
+        {
+            @Override
+            public int read() throws IOException {
+                throw new IOException();
+            }
+        };
+        NonBlockingInputStream in = new NonBlockingInputStream(broken, true);
+        try {
+            in.read();
+        }
+        finally {
+            in.shutdown();
+        }
+    }
+}
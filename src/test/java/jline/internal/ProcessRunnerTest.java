@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests for the {@link ProcessRunner}.
+ */
+public class ProcessRunnerTest
+{
+    @Before
+    public void setUp() {
+        assumeTrue(!Configuration.isWindows());
+    }
+
+    @Test
+    public void testOutputThenError() throws Exception {
+        ProcessRunner runner = new ProcessRunner(5000, "sh", "-c");
+        assertEquals("out\nerr\n", runner.run("echo err >&2; echo out"));
+        assertEquals(1, runner.getInvocations());
+        assertTrue(runner.getMaxNanos() > 0);
+        assertTrue(runner.getTotalNanos() >= runner.getMaxNanos());
+    }
+
+    @Test
+    public void testLargeErrorDoesNotBlock() throws Exception {
+        // more than a pipe buffer on stderr before anything on stdout
+        ProcessRunner runner = new ProcessRunner(5000, "sh", "-c");
+        String result = runner.run("i=0; while [ $i -lt 2000 ]; do echo 0123456789012345678901234567890123456789 >&2; i=$((i+1)); done; echo done");
+        assertTrue(result.startsWith("done\n"));
+        assertEquals(5 + 2000 * 41, result.length());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        ProcessRunner runner = new ProcessRunner(200, "sh", "-c");
+        long start = System.currentTimeMillis();
+        try {
+            runner.run("sleep 10");
+            fail();
+        }
+        catch (IOException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, runner.getInvocations());
+    }
+
+    @Test
+    public void testTimeoutReleasesTheReaders() throws Exception {
+        // readers left by another test's grandchild may still be blocked
+        int before = readingThreads();
+        ProcessRunner runner = new ProcessRunner(200, "sh", "-c");
+        try {
+            runner.run("exec sleep 10");
+            fail();
+        }
+        catch (IOException e) {
+            // expected
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        while (readingThreads() > before && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(readingThreads() <= before);
+    }
+
+    /**
+     * Counts the reader threads still blocked on a pipe, rather than idle in the pool.
+     */
+    private static int readingThreads() {
+        int n = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("JLine process reader") && t.getState() == Thread.State.RUNNABLE) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests for {@link Signals}.
+ */
+public class SignalsTest
+{
+    private static final String WINCH = "WINCH";
+
+    @Test
+    public void testUnregisterRestoresThePreviousHandler() throws Exception {
+        assumeTrue(!Configuration.isWindows());
+
+        final Semaphore raised = new Semaphore(0);
+        Runnable first = new Runnable()
+        {
+            public void run() {
+                raised.release();
+            }
+        };
+        Runnable second = new Runnable()
+        {
+            public void run() {
+                raised.release();
+            }
+        };
+        Object before = currentHandler(WINCH);
+        assumeTrue(Signals.register(WINCH, first));
+        try {
+            assertTrue(Signals.register(WINCH, second));
+            raise(WINCH);
+            assertTrue(raised.tryAcquire(2, 5, TimeUnit.SECONDS));
+
+            Signals.unregister(WINCH, first);
+            assertTrue(Signals.isTrapped(WINCH));
+        }
+        finally {
+            Signals.unregister(WINCH, first);
+            Signals.unregister(WINCH, second);
+        }
+        assertFalse(Signals.isTrapped(WINCH));
+        assertSame(before, currentHandler(WINCH));
+    }
+
+    private static void raise(final String name) throws Exception {
+        Class<?> signalType = Class.forName("sun.misc.Signal");
+        Method raise = signalType.getMethod("raise", signalType);
+        raise.invoke(null, signalType.getConstructor(String.class).newInstance(name));
+    }
+
+    /**
+     * Returns the installed handler, by swapping it out and back in.
+     */
+    private static Object currentHandler(final String name) throws Exception {
+        Class<?> signalType = Class.forName("sun.misc.Signal");
+        Class<?> handlerType = Class.forName("sun.misc.SignalHandler");
+        Method handle = signalType.getMethod("handle", signalType, handlerType);
+        Object signal = signalType.getConstructor(String.class).newInstance(name);
+        Object current = handle.invoke(null, signal, handlerType.getField("SIG_DFL").get(null));
+        handle.invoke(null, signal, current);
+        return current;
+    }
+}
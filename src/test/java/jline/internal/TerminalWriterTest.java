@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link TerminalWriter}.
+ */
+public class TerminalWriterTest
+{
+    private static final String[] CHARSETS = { "UTF-8", "ISO-8859-1", "US-ASCII", "UTF-16", "Shift_JIS", "ISO-2022-JP" };
+
+    /**
+     * Plain text and escape sequences, accented, wide and supplementary characters, and
+     * surrogates on their own.
+     */
+    private static final String[] TOKENS = {
+        "a", "scala> ", "\033[1;32m", "\033[K", "\r\n", "\u00E9", "\u6771\u4EAC", "\uD83D\uDE00", "\uD83D", "\uDE00"
+    };
+
+    @Test
+    public void testAsciiIsWrittenAsIs() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer writer = new TerminalWriter(bytes, "UTF-8");
+        writer.write("\033[2J\033[Hscala> ");
+        writer.write('x');
+        assertEquals(0, bytes.size());
+        writer.flush();
+        assertEquals("\033[2J\033[Hscala> x", bytes.toString("US-ASCII"));
+    }
+
+    @Test
+    public void testSameBytesAsOutputStreamWriter() throws Exception {
+        Random random = new Random(3);
+        for (String charset : CHARSETS) {
+            for (int round = 0; round < 50; round++) {
+                StringBuilder str = new StringBuilder();
+                for (int i = random.nextInt(3000); i > 0; i--) {
+                    str.append(TOKENS[random.nextInt(TOKENS.length)]);
+                }
+                assertSameBytes(charset, str.toString(), random);
+            }
+        }
+    }
+
+    /**
+     * Writes the text in random pieces, which may split surrogate pairs, and compares the
+     * bytes with those of the JRE writer.
+     */
+    private void assertSameBytes(final String charset, final String str, final Random random) throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(expected, charset);
+        writer.write(str);
+        writer.close();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        writer = new TerminalWriter(actual, charset);
+        int i = 0;
+        while (i < str.length()) {
+            int len = Math.min(random.nextInt(20), str.length() - i);
+            switch (random.nextInt(3)) {
+                case 0:
+                    writer.write(str.charAt(i));
+                    len = 1;
+                    break;
+                case 1:
+                    writer.write(str.toCharArray(), i, len);
+                    break;
+                default:
+                    writer.write(str, i, len);
+            }
+            i += len;
+        }
+        writer.close();
+
+        assertTrue(charset, Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+    }
+
+    @Test(expected = UnsupportedEncodingException.class)
+    public void testUnknownEncoding() throws Exception {
+        new TerminalWriter(new ByteArrayOutputStream(), "no-such-charset");
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import scala.tools.jline.internal.Terminfo.Capability;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link Terminfo} parser and parameter handling.
+ */
+public class TerminfoTest
+{
+    private static List<File> testDirs() throws Exception {
+        return Collections.singletonList(new File(TerminfoTest.class.getResource("terminfo").toURI()));
+    }
+
+    /**
+     * Returns the entry of the test resources, which has insert and delete character.
+     */
+    public static Terminfo load() throws Exception {
+        return Terminfo.load("jline-test", testDirs());
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        Terminfo terminfo = Terminfo.load("jline-test", testDirs());
+        assertNotNull(terminfo);
+        assertEquals("jline-test|terminal used by the JLine tests", terminfo.getNames());
+
+        assertTrue(terminfo.getBoolean(Capability.AUTO_RIGHT_MARGIN));
+        assertTrue(terminfo.getBoolean(Capability.EAT_NEWLINE_GLITCH));
+        assertEquals(80, terminfo.getNumber(Capability.COLUMNS));
+        assertEquals(24, terminfo.getNumber(Capability.LINES));
+
+        assertEquals("\033[K", terminfo.getString(Capability.CLR_EOL));
+        assertEquals("\n", terminfo.getString(Capability.CURSOR_DOWN));
+        assertEquals("\033[1K", terminfo.getString(Capability.CLR_BOL));
+        assertFalse(terminfo.hasString(Capability.INSERT_CHARACTER));
+        assertNull(terminfo.tparm(Capability.ERASE_CHARS, 3));
+
+        assertEquals("\033[12G", terminfo.tparm(Capability.COLUMN_ADDRESS, 11));
+        assertEquals("\033[3A", terminfo.tparm(Capability.PARM_UP_CURSOR, 3));
+        assertEquals("\033[1;24r", terminfo.tparm(Capability.CHANGE_SCROLL_REGION, 0, 23));
+    }
+
+    @Test
+    public void testMissing() throws Exception {
+        assertNull(Terminfo.load("no-such-terminal", testDirs()));
+        assertNull(Terminfo.load("../terminfo/j/jline-test", testDirs()));
+        assertNull(Terminfo.forTerm(null));
+        assertNull(Terminfo.forTerm(""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongKind() {
+        Terminfo.ANSI.getString(Capability.COLUMNS);
+    }
+
+    @Test
+    public void testAnsi() {
+        assertEquals("\033[K", Terminfo.ANSI.tparm(Capability.CLR_EOL));
+        assertEquals("\033[1G", Terminfo.ANSI.tparm(Capability.COLUMN_ADDRESS, 0));
+        assertEquals("\033[2B", Terminfo.ANSI.tparm(Capability.PARM_DOWN_CURSOR, 2));
+        assertEquals(-1, Terminfo.ANSI.getNumber(Capability.COLUMNS));
+    }
+
+    @Test
+    public void testParameters() {
+        // setaf from xterm-256color
+        String setaf = "\033[%?%p1%{8}%<%t3%p1%d%e%p1%{16}%<%t9%p1%{8}%-%d%e38;5;%p1%d%;m";
+        assertEquals("\033[31m", Terminfo.tparm(setaf, 1));
+        assertEquals("\033[91m", Terminfo.tparm(setaf, 9));
+        assertEquals("\033[38;5;100m", Terminfo.tparm(setaf, 100));
+
+        assertEquals("\033[?5h\033[?5l", Terminfo.tparm("\033[?5h$<100/>\033[?5l"));
+        assertEquals("%", Terminfo.tparm("%%"));
+        assertEquals("A", Terminfo.tparm("%p1%c", 65));
+        assertEquals("007", Terminfo.tparm("%p1%03d", 7));
+        assertEquals("ff", Terminfo.tparm("%p1%x", 255));
+        assertEquals("8", Terminfo.tparm("%p1%Pa%ga%ga%+%d", 4));
+        assertEquals("3", Terminfo.tparm("%'d'%'a'%-%d"));
+        assertEquals("1", Terminfo.tparm("%p1%p2%>%d", 5, 2));
+    }
+
+    @Test
+    public void testParametersIgnoreTheDefaultLocale() {
+        Locale saved = Locale.getDefault();
+        // Arabic digits where the locale data has them
+        Locale.setDefault(new Locale("ar", "EG"));
+        try {
+            assertEquals("\033[12G", Terminfo.ANSI.tparm(Capability.COLUMN_ADDRESS, 11));
+            assertEquals("007", Terminfo.tparm("%p1%03d", 7));
+            assertEquals("ff", Terminfo.tparm("%p1%x", 255));
+        }
+        finally {
+            Locale.setDefault(saved);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import scala.tools.jline.internal.TermiosTtyBackend.Platform;
+import scala.tools.jline.internal.TermiosTtyBackend.Termios;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link TermiosTtyBackend} operand handling.
+ */
+public class TermiosTtyBackendTest
+{
+    private Termios linuxDefaults() {
+        Termios t = new Termios(Platform.LINUX, 32);
+        t.apply("icrnl ixon opost onlcr isig icanon echo echoe echok iexten intr ^C erase ^? min 1 time 0");
+        return t;
+    }
+
+    private boolean isSet(final Termios t, final String flag) {
+        long[] f = t.platform.flags.get(flag);
+        return (t.flags[(int) f[0]] & f[1]) != 0;
+    }
+
+    @Test
+    public void testDetectPlatform() {
+        assertSame(Platform.LINUX, Platform.detect("linux"));
+        assertSame(Platform.BSD, Platform.detect("mac os x"));
+        assertSame(Platform.BSD, Platform.detect("freebsd"));
+        assertNull(Platform.detect("sunos"));
+    }
+
+    @Test
+    public void testApplyFlags() {
+        Termios t = linuxDefaults();
+        t.apply("-icanon min 1 -icrnl -inlcr -ixon");
+        assertFalse(isSet(t, "icanon"));
+        assertFalse(isSet(t, "icrnl"));
+        assertFalse(isSet(t, "ixon"));
+        assertTrue(isSet(t, "echo"));
+        assertEquals(1, t.cc[6]);
+
+        t.apply("-echo");
+        assertFalse(isSet(t, "echo"));
+        t.apply("echo");
+        assertTrue(isSet(t, "echo"));
+    }
+
+    @Test
+    public void testApplyControlChars() {
+        Termios t = linuxDefaults();
+        assertEquals(3, t.cc[0]);
+        t.apply("intr undef");
+        assertEquals(0, t.cc[0]);
+        t.apply("intr ^c");
+        assertEquals(3, t.cc[0]);
+        assertEquals(127, t.cc[2]);
+    }
+
+    @Test
+    public void testUnsupportedOperandsAreSkipped() {
+        Termios t = linuxDefaults();
+        String before = t.encode();
+        // dsusp only exists on BSD
+        t.apply("dsusp undef");
+        assertEquals(before, t.encode());
+
+        Termios bsd = new Termios(Platform.BSD, 20);
+        bsd.apply("dsusp undef");
+        assertEquals(0xff, bsd.cc[11] & 0xff);
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        Termios t = linuxDefaults();
+        String saved = t.encode();
+        assertTrue(Termios.isEncoded(saved));
+        assertFalse(Termios.isEncoded("-icanon min 1"));
+
+        t.apply("-icanon -echo intr undef");
+        assertFalse(saved.equals(t.encode()));
+
+        t.decode(saved);
+        assertEquals(saved, t.encode());
+        assertTrue(isSet(t, "icanon"));
+    }
+
+    @Test
+    public void testDescribeIsParseable() {
+        Termios t = linuxDefaults();
+        String config = t.describe(85, 244);
+        assertEquals(244, TerminalLineSettings.getProperty("columns", config));
+        assertEquals(85, TerminalLineSettings.getProperty("rows", config));
+        assertEquals(0x7f, TerminalLineSettings.getProperty("erase", config));
+        assertEquals(3, TerminalLineSettings.getProperty("intr", config));
+        assertTrue(config.contains(" icanon "));
+
+        t.apply("intr undef");
+        assertEquals(-1, TerminalLineSettings.getProperty("intr", t.describe(85, 244)));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares reading a handful of settings with one {@link TtyAttributes#parse} against
+ * the former approach of compiling and running regexes for every lookup. Run it by hand:
+ * <pre>
+ * java -cp ... scala.tools.jline.internal.TtyAttributesBenchmark [iterations]
+ * </pre>
+ */
+public class TtyAttributesBenchmark
+{
+    private static final String[] NAMES = { "rows", "columns", "erase", "intr" };
+
+    public static void main(final String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        for (String fixture : new String[] { "stty-linux.txt", "stty-macos.txt", "stty-freebsd.txt" }) {
+            String stty = TtyAttributesTest.load(fixture);
+            int sink = 0;
+
+            // warm up
+            for (int i = 0; i < iterations; i++) {
+                sink += lookupRegex(stty) + lookupParsed(stty);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += lookupRegex(stty);
+            }
+            long regex = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += lookupParsed(stty);
+            }
+            long parsed = System.nanoTime() - start;
+
+            System.out.println(fixture + ": regex " + (regex / iterations) + " ns, parse " + (parsed / iterations)
+                + " ns per snapshot (" + sink + ")");
+        }
+    }
+
+    private static int lookupParsed(final String stty) {
+        TtyAttributes attributes = TtyAttributes.parse(stty);
+        int sum = 0;
+        for (String name : NAMES) {
+            sum += attributes.get(name);
+        }
+        return sum;
+    }
+
+    private static int lookupRegex(final String stty) {
+        int sum = 0;
+        for (String name : NAMES) {
+            sum += regex(name, stty);
+        }
+        return sum;
+    }
+
+    private static int regex(final String name, final String stty) {
+        Pattern pattern = Pattern.compile(name + "\\s+=\\s+(.*?)[;\\n\\r]");
+        Matcher matcher = pattern.matcher(stty);
+        if (!matcher.find()) {
+            pattern = Pattern.compile(name + "\\s+([^;]*)[;\\n\\r]");
+            matcher = pattern.matcher(stty);
+            if (!matcher.find()) {
+                pattern = Pattern.compile("(\\S*)\\s+" + name);
+                matcher = pattern.matcher(stty);
+                if (!matcher.find()) {
+                    return -1;
+                }
+            }
+        }
+        return TtyAttributes.parseControlChar(matcher.group(1));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link TtyAttributes} parser.
+ */
+public class TtyAttributesTest
+{
+    static String load(final String name) throws IOException {
+        InputStream in = TtyAttributesTest.class.getResourceAsStream(name);
+        assertNotNull(name, in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return out.toString("UTF-8");
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testLinux() throws Exception {
+        TtyAttributes attributes = TtyAttributes.parse(load("stty-linux.txt"));
+        assertEquals(50, attributes.getRows());
+        assertEquals(132, attributes.getColumns());
+        assertEquals(38400, attributes.get("speed"));
+        assertEquals(0x7f, attributes.getControlChar("erase"));
+        assertEquals(3, attributes.getControlChar("intr"));
+        assertEquals(28, attributes.getControlChar("quit"));
+        assertEquals(-1, attributes.getControlChar("eol"));
+        assertEquals(1, attributes.get("min"));
+        assertTrue(attributes.isEnabled("icanon"));
+        assertTrue(attributes.isEnabled("cs8"));
+        assertFalse(attributes.isEnabled("iutf8"));
+        assertTrue(attributes.hasFlag("iutf8"));
+        assertFalse(attributes.hasFlag("baud"));
+    }
+
+    @Test
+    public void testMacOS() throws Exception {
+        TtyAttributes attributes = TtyAttributes.parse(load("stty-macos.txt"));
+        assertEquals(47, attributes.getRows());
+        assertEquals(155, attributes.getColumns());
+        assertEquals(0x7f, attributes.getControlChar("erase"));
+        assertEquals(25, attributes.getControlChar("dsusp"));
+        assertTrue(attributes.isEnabled("iutf8"));
+        assertFalse(attributes.isEnabled("echok"));
+        assertFalse(attributes.hasFlag("lflags"));
+    }
+
+    @Test
+    public void testFreeBSD() throws Exception {
+        TtyAttributes attributes = TtyAttributes.parse(load("stty-freebsd.txt"));
+        assertEquals(32, attributes.getRows());
+        assertEquals(199, attributes.getColumns());
+        assertEquals(0x7f, attributes.getControlChar("erase"));
+        assertEquals(8, attributes.getControlChar("erase2"));
+        assertTrue(attributes.isEnabled("echok"));
+    }
+
+    @Test
+    public void testUnknown() {
+        TtyAttributes attributes = TtyAttributes.parse("");
+        assertEquals(TtyAttributes.UNDEFINED, attributes.getRows());
+        assertFalse(attributes.isEnabled("icanon"));
+        assertEquals(TtyAttributes.UNDEFINED, TtyAttributes.EMPTY.getColumns());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2002-2012, the original author or authors.
+ *
+ * This software is distributable under the BSD license. See the terms of the
+ * BSD license in the documentation provided with this software.
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ */
+package scala.tools.jline.internal;
+
+/**
+ * Compares the cost of a terminal mode switch for each available {@link TtyBackend}.
+ * Needs a real terminal, so run it by hand:
+ * <pre>
+ * java -cp ... scala.tools.jline.internal.TtyBackendBenchmark [iterations]
+ * </pre>
+ */
+public class TtyBackendBenchmark
+{
+    public static void main(final String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        run(new ExecTtyBackend(), iterations);
+
+        CoprocessTtyBackend coprocess = new CoprocessTtyBackend();
+        try {
+            run(coprocess, iterations);
+        }
+        finally {
+            coprocess.close();
+        }
+
+        TtyBackend termios = TermiosTtyBackend.create();
+        if (termios != null) {
+            run(termios, iterations);
+        }
+        else {
+            System.out.println("termios: not available");
+        }
+    }
+
+    private static void run(final TtyBackend backend, final int iterations) throws Exception {
+        String saved = backend.stty("-g").trim();
+        try {
+            // warm up
+            for (int i = 0; i < 10; i++) {
+                backend.stty("-echo");
+                backend.stty("echo");
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                backend.stty("-echo");
+                backend.stty("echo");
+            }
+            long elapsed = System.nanoTime() - start;
+
+            System.out.println(backend + ": " + (elapsed / (iterations * 2L) / 1000) + " us per mode switch");
+        }
+        finally {
+            backend.stty(saved);
+        }
+    }
+}
@@ -8,11 +8,15 @@
  */
 package scala.tools.jline.readline;
 
+import java.util.Map;
+
 import scala.tools.jline.console.KeyMap;
 import scala.tools.jline.console.Operation;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 
@@ -35,4 +39,80 @@ public class KeyMapTest {
         assertEquals( Operation.NEXT_HISTORY , map.getBound("\033[0AB") );
     }
 
+    @Test
+    public void testStep() throws Exception {
+
+        KeyMap map = KeyMap.emacs();
+        map.bind( "\033[A", Operation.PREVIOUS_HISTORY );
+
+        Object state = map.step( '\033' );
+        assertTrue( state instanceof KeyMap );
+        state = ((KeyMap) state).step( '[' );
+        assertTrue( state instanceof KeyMap );
+        assertEquals( Operation.PREVIOUS_HISTORY, ((KeyMap) state).step( 'A' ) );
+        assertEquals( null, ((KeyMap) state).step( 'Z' ) );
+
+        assertEquals( Operation.SELF_INSERT, map.step( 'a' ) );
+        assertEquals( Operation.SELF_INSERT, map.step( 0x6771 ) );
+    }
+
+    @Test
+    public void testBoundBeyondAscii() throws Exception {
+
+        KeyMap map = KeyMap.emacs();
+        map.bind( "\u00E9", Operation.UPCASE_WORD );
+        map.bind( "\u6771\u4EAC", "Tokyo" );
+        map.bind( "\033\uD83D\uDE00", Operation.KILL_WORD );
+
+        assertEquals( Operation.UPCASE_WORD, map.getBound("\u00E9") );
+        assertEquals( Operation.SELF_INSERT, map.getBound("\u00E8") );
+        assertEquals( "Tokyo", map.getBound("\u6771\u4EAC") );
+        assertTrue( map.getBound("\u6771") instanceof KeyMap );
+        assertEquals( Operation.SELF_INSERT, ((KeyMap) map.getBound("\u6771")).getAnotherKey() );
+        assertEquals( Operation.KILL_WORD, map.getBound("\033\uD83D\uDE00") );
+        assertEquals( Operation.KILL_WORD, ((KeyMap) map.step( '\033' )).step( 0x1F600 ) );
+        assertEquals( Operation.SELF_INSERT, map.step( 0x1F601 ) );
+
+        // many keys, so that the table grows
+        KeyMap ctrlX = KeyMap.emacsCtrlX();
+        for (int c = 0x100; c < 0x400; c++) {
+            ctrlX.bind( new String(Character.toChars(c)), "" + c );
+        }
+        for (int c = 0x100; c < 0x400; c++) {
+            assertEquals( "" + c, ctrlX.step( c ) );
+        }
+        assertEquals( null, ctrlX.step( 0x400 ) );
+        assertEquals( Operation.UNDO, ctrlX.step( KeyMap.CTRL_U ) );
+
+        assertEquals( null, KeyMap.viMovement().step( 0x6771 ) );
+    }
+
+    @Test
+    public void testKeyMapsAreBoundSeparately() throws Exception {
+
+        Map<String, KeyMap> first = KeyMap.keyMaps();
+        Map<String, KeyMap> second = KeyMap.keyMaps();
+
+        // what isn't bound in is shared, and looking it up doesn't change that
+        first.get(KeyMap.EMACS).getBound( "\033[" );
+        assertSame( ((KeyMap) first.get(KeyMap.EMACS).step( KeyMap.ESCAPE )).step( '[' ),
+            ((KeyMap) second.get(KeyMap.EMACS).step( KeyMap.ESCAPE )).step( '[' ) );
+        assertSame( first.get(KeyMap.VI_INSERT).step( KeyMap.ESCAPE ), second.get(KeyMap.VI_INSERT).step( KeyMap.ESCAPE ) );
+
+        first.get(KeyMap.EMACS_META).bind( "x", Operation.UPCASE_WORD );
+        first.get(KeyMap.VI_INSERT).bind( "\033[5~", Operation.BEGINNING_OF_HISTORY );
+        first.get(KeyMap.EMACS).getKeyMapForBinding( "\033[" ).bind( "Z", Operation.TAB_INSERT );
+
+        assertEquals( Operation.UPCASE_WORD, first.get(KeyMap.EMACS).getBound( "\033x" ) );
+        assertEquals( Operation.BEGINNING_OF_HISTORY, first.get(KeyMap.VI_INSERT).getBound( "\033[5~" ) );
+        assertEquals( Operation.PREVIOUS_HISTORY, first.get(KeyMap.VI_INSERT).getBound( "\033[A" ) );
+        assertEquals( Operation.TAB_INSERT, first.get(KeyMap.EMACS).getBound( "\033[Z" ) );
+        assertEquals( Operation.FORWARD_CHAR, first.get(KeyMap.EMACS).getBound( "\033[C" ) );
+        assertNotSame( first.get(KeyMap.VI_INSERT).step( KeyMap.ESCAPE ), second.get(KeyMap.VI_INSERT).step( KeyMap.ESCAPE ) );
+
+        assertEquals( null, second.get(KeyMap.EMACS).getBound( "\033x" ) );
+        assertEquals( null, second.get(KeyMap.VI_INSERT).getBound( "\033[5~" ) );
+        assertEquals( null, second.get(KeyMap.EMACS).getBound( "\033[Z" ) );
+        assertEquals( null, KeyMap.keyMaps().get(KeyMap.EMACS_META).getBound( "x" ) );
+    }
 }